@@ -0,0 +1,367 @@
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+
+import edu.mit.jwi.IDictionary;
+import edu.mit.jwi.data.ContentType;
+import edu.mit.jwi.data.IContentType;
+import edu.mit.jwi.data.IDataSource;
+import edu.mit.jwi.item.IIndexWord;
+import edu.mit.jwi.item.IWordID;
+import edu.mit.jwi.item.POS;
+
+/**
+ * Benchmarks for the data sources and providers, run against the Wordnet
+ * dictionary bundled in the JAR file. It measures the opening of the
+ * provider, the lookups of both data source implementations, full scans of
+ * the files, and lookups through the dictionary, both single-threaded and
+ * with the specified number of threads. It also measures how the batch
+ * similarity computations scale with the size of the fork-join pool. <br/>
+ * Usage: java -cp &lt;jar&gt; Benchmark [threads] [seconds per measurement]
+ * 
+ * @author Markus HAENSE
+ */
+public class Benchmark {
+
+	private static final int SAMPLES_PER_THREAD = 1 << 20;
+
+	/** Consumes results so that the JIT cannot eliminate the operations */
+	private static volatile int sink;
+
+	private final int fThreads;
+	private final long fMillis;
+
+	/**
+	 * An operation to measure, called with increasing indexes.
+	 */
+	public static abstract class Operation {
+		public abstract int run(int index);
+	}
+
+	public Benchmark(int threads, long millis) {
+		fThreads = threads;
+		fMillis = millis;
+	}
+
+	public static void main(String[] args) throws Exception {
+		int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime
+				.getRuntime().availableProcessors();
+		int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+
+		Benchmark benchmark = new Benchmark(threads, seconds * 1000L);
+		benchmark.benchmarkOpen();
+		benchmark.benchmarkGetLine();
+		benchmark.benchmarkIterators();
+		benchmark.benchmarkDictionary();
+		benchmark.benchmarkSimilarity();
+	}
+
+	/**
+	 * Measures how long it takes to open a new provider in each loading mode.
+	 */
+	public void benchmarkOpen() throws IOException {
+		String[] modes = { "default", "memory-mapped", "lazy", "parallel",
+				"line-indexed", "hashed-index", "hashed-exceptions",
+				"compressed", "path", "path-memory-mapped" };
+		for (final String mode : modes) {
+			measure("JarFileProvider.open() " + mode, 1, new Operation() {
+				public int run(int index) {
+					JarFileProvider provider = createProvider(mode);
+					try {
+						provider.open();
+					} catch (IOException e) {
+						throw new IllegalStateException(e);
+					}
+					int size = provider.isOpen() ? 1 : 0;
+					provider.close();
+					return size;
+				}
+			});
+		}
+	}
+
+	/**
+	 * Measures random lookups of existing keys in every data source.
+	 */
+	public void benchmarkGetLine() throws IOException {
+		for (String mode : new String[] { "default", "line-indexed",
+				"hashed-index", "hashed-exceptions", "compressed" }) {
+			JarFileProvider provider = createProvider(mode);
+			provider.open();
+			for (IContentType<?> type : new IContentType<?>[] {
+					ContentType.DATA_VERB, ContentType.INDEX_VERB,
+					ContentType.INDEX_ADJECTIVE, ContentType.EXCEPTION_VERB }) {
+				final IDataSource<?> src = provider.getSource(type);
+				if (src == null)
+					continue;
+				final String[] keys = collectKeys(src);
+				String name = src.getClass().getSimpleName() + ".getLine() "
+						+ src.getName() + " " + mode;
+				Operation op = new Operation() {
+					public int run(int index) {
+						String line = src.getLine(keys[index % keys.length]);
+						return line == null ? 0 : line.length();
+					}
+				};
+				measure(name, 1, op);
+				measure(name, fThreads, op);
+			}
+			provider.close();
+		}
+	}
+
+	/**
+	 * Measures full scans of every data source with its iterator.
+	 */
+	public void benchmarkIterators() throws IOException {
+		JarFileProvider provider = createProvider("default");
+		provider.open();
+		List<IDataSource<?>> sources = new ArrayList<IDataSource<?>>(provider
+				.getSources());
+		for (final IDataSource<?> src : sources) {
+			measure("iterator() full scan " + src.getName(), 1,
+					new Operation() {
+						public int run(int index) {
+							int lines = 0;
+							for (Iterator<String> i = src.iterator(); i
+									.hasNext(); i.next())
+								lines++;
+							return lines;
+						}
+					});
+		}
+		provider.close();
+	}
+
+	/**
+	 * Measures the lookups of index words and words through the dictionary,
+	 * with and without the item cache.
+	 */
+	public void benchmarkDictionary() throws IOException {
+		for (boolean caching : new boolean[] { true, false }) {
+			final IDictionary dict = new JarDictionary(createProvider("default"));
+			dict.open();
+			((JarDictionary) dict).getCache().setCachingEnabled(caching);
+
+			List<String> lemmas = new ArrayList<String>();
+			final List<IWordID> wordIDs = new ArrayList<IWordID>();
+			for (Iterator<IIndexWord> i = dict.getIndexWordIterator(POS.VERB); i
+					.hasNext();) {
+				IIndexWord idxWord = i.next();
+				lemmas.add(idxWord.getLemma());
+				wordIDs.addAll(idxWord.getWordIDs());
+			}
+			Collections.shuffle(lemmas, new Random(42));
+			Collections.shuffle(wordIDs, new Random(42));
+			final String[] keys = lemmas.toArray(new String[lemmas.size()]);
+
+			String suffix = caching ? " cached" : " uncached";
+			Operation getIndexWord = new Operation() {
+				public int run(int index) {
+					IIndexWord word = dict.getIndexWord(keys[index
+							% keys.length], POS.VERB);
+					return word == null ? 0 : 1;
+				}
+			};
+			Operation getWord = new Operation() {
+				public int run(int index) {
+					return dict.getWord(wordIDs.get(index % wordIDs.size())) == null ? 0
+							: 1;
+				}
+			};
+			measure("JarDictionary.getIndexWord()" + suffix, 1, getIndexWord);
+			measure("JarDictionary.getIndexWord()" + suffix, fThreads,
+					getIndexWord);
+			measure("JarDictionary.getWord()" + suffix, 1, getWord);
+			measure("JarDictionary.getWord()" + suffix, fThreads, getWord);
+			dict.close();
+		}
+	}
+
+	/**
+	 * Measures the throughput of batch similarity computations over random
+	 * pairs of verb synsets, on fork-join pools of up to the specified number
+	 * of threads.
+	 */
+	public void benchmarkSimilarity() throws IOException {
+		JarDictionary dict = new JarDictionary(createProvider("default"));
+		dict.open();
+		SimilarityEngine engine = new SimilarityEngine(dict, POS.VERB);
+		Random random = new Random(42);
+		int[] first = new int[SAMPLES_PER_THREAD];
+		int[] second = new int[SAMPLES_PER_THREAD];
+		for (int i = 0; i < first.length; i++) {
+			first[i] = random.nextInt(engine.getGraph().size());
+			second[i] = random.nextInt(engine.getGraph().size());
+		}
+
+		List<Integer> poolSizes = new ArrayList<Integer>();
+		for (int threads = 1; threads < fThreads; threads *= 2)
+			poolSizes.add(threads);
+		poolSizes.add(fThreads);
+
+		for (SimilarityEngine.Measure measure : SimilarityEngine.Measure
+				.values()) {
+			for (int threads : poolSizes) {
+				ForkJoinPool pool = new ForkJoinPool(threads);
+				engine.setPool(pool);
+				// warm up, filling the memoized ancestors
+				engine.compute(measure, first, second);
+
+				long pairs = 0;
+				long begin = System.nanoTime();
+				long elapsed;
+				do {
+					double[] result = engine.compute(measure, first, second);
+					sink += (int) result[0];
+					pairs += result.length;
+					elapsed = System.nanoTime() - begin;
+				} while (elapsed < fMillis * 1000000L);
+				pool.shutdown();
+
+				System.out.println(String.format("%-70s %3d thr %14.1f pairs/s",
+						"SimilarityEngine.compute() " + measure, threads, pairs
+								* 1e9 / elapsed));
+			}
+		}
+		dict.close();
+	}
+
+	/**
+	 * Creates a provider for the JAR file in the specified loading mode. The
+	 * path modes read the same JAR file through a {@link PathProvider}.
+	 */
+	protected JarFileProvider createProvider(String mode) {
+		JarFileProvider provider;
+		if (mode.startsWith("path")) {
+			try {
+				provider = new PathProvider(Paths.get(Benchmark.class
+						.getProtectionDomain().getCodeSource().getLocation()
+						.toURI()));
+			} catch (URISyntaxException e) {
+				throw new IllegalStateException(e);
+			}
+		} else {
+			provider = new JarFileProvider(Benchmark.class.getResource(""));
+		}
+		provider.setMemoryMapped(mode.endsWith("memory-mapped"));
+		provider.setLazyLoading("lazy".equals(mode));
+		provider.setParallelLoading("parallel".equals(mode));
+		provider.setLineIndexed("line-indexed".equals(mode));
+		provider.setHashedIndex("hashed-index".equals(mode));
+		provider.setHashedExceptions("hashed-exceptions".equals(mode));
+		provider.setCompressed("compressed".equals(mode));
+		return provider;
+	}
+
+	/**
+	 * Returns the keys of all lines of the data source in random order.
+	 */
+	protected String[] collectKeys(IDataSource<?> src) {
+		List<String> keys = new ArrayList<String>();
+		for (String line : src) {
+			int end = line.indexOf(' ');
+			keys.add(end == -1 ? line : line.substring(0, end));
+		}
+		Collections.shuffle(keys, new Random(42));
+		return keys.toArray(new String[keys.size()]);
+	}
+
+	/**
+	 * Runs the operation on the specified number of threads, first to warm up
+	 * and then to measure, and prints the throughput and latencies.
+	 */
+	public void measure(String name, int threads, final Operation op) {
+		run(threads, op, fMillis / 2, false);
+		long[][] samples = new long[threads][];
+		long[] counts = new long[threads];
+		long elapsed = run(threads, op, fMillis, true, samples, counts);
+
+		long total = 0;
+		int sampled = 0;
+		for (int i = 0; i < threads; i++) {
+			total += counts[i];
+			sampled += (int) Math.min(counts[i], SAMPLES_PER_THREAD);
+		}
+		long[] latencies = new long[sampled];
+		int pos = 0;
+		for (int i = 0; i < threads; i++) {
+			int n = (int) Math.min(counts[i], SAMPLES_PER_THREAD);
+			System.arraycopy(samples[i], 0, latencies, pos, n);
+			pos += n;
+		}
+		Arrays.sort(latencies);
+
+		double opsPerSecond = total * 1e9 / elapsed;
+		System.out.println(String.format(
+				"%-70s %3d thr %14.1f ops/s  p50 %10d ns  p99 %10d ns", name,
+				threads, opsPerSecond, percentile(latencies, 0.50),
+				percentile(latencies, 0.99)));
+	}
+
+	private long run(int threads, Operation op, long millis, boolean record) {
+		return run(threads, op, millis, record, new long[threads][],
+				new long[threads]);
+	}
+
+	private long run(int threads, final Operation op, final long millis,
+			final boolean record, final long[][] samples, final long[] counts) {
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(threads);
+		for (int t = 0; t < threads; t++) {
+			final int thread = t;
+			new Thread("benchmark-" + t) {
+				public void run() {
+					long[] latencies = record ? new long[SAMPLES_PER_THREAD]
+							: null;
+					int result = 0;
+					long count = 0;
+					try {
+						start.await();
+						long deadline = System.nanoTime() + millis * 1000000L;
+						long now = System.nanoTime();
+						while (now < deadline) {
+							int index = (int) ((count * 7919 + thread) & Integer.MAX_VALUE);
+							result += op.run(index);
+							long after = System.nanoTime();
+							if (record && count < SAMPLES_PER_THREAD)
+								latencies[(int) count] = after - now;
+							now = after;
+							count++;
+						}
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					} finally {
+						sink += result;
+						samples[thread] = latencies;
+						counts[thread] = count;
+						done.countDown();
+					}
+				}
+			}.start();
+		}
+
+		long begin = System.nanoTime();
+		start.countDown();
+		try {
+			done.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return System.nanoTime() - begin;
+	}
+
+	private static long percentile(long[] sorted, double p) {
+		if (sorted.length == 0)
+			return 0;
+		return sorted[(int) Math.min(sorted.length - 1, sorted.length * p)];
+	}
+}
\ No newline at end of file
@@ -1,8 +1,11 @@
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Comparator;
 import java.util.Iterator;
+import java.util.List;
 
 import edu.mit.jwi.data.IContentType;
 
@@ -18,57 +21,342 @@ public class BinarySearchWordnetJarFile<T> extends WordnetJarFile<T> {
 
 	protected final Comparator<String> fComparator;
 
+	/**
+	 * Compares keys directly against the buffer, or <code>null</code> if the
+	 * comparator of the content type has no byte level counterpart.
+	 */
+	protected final ByteLineComparator fKeyComparator;
+
+	/**
+	 * Start offsets of the non-comment lines, or <code>null</code> if the
+	 * searches bisect raw byte positions.
+	 */
+	protected final int[] fLines;
+
+	private final static int AVERAGE_LINE_LENGTH = 64;
+
 	public BinarySearchWordnetJarFile(InputStream is, String name,
 			IContentType<T> contentType) throws IOException {
 		super(is, name, contentType);
 		fComparator = getContentType().getLineComparator();
+		fKeyComparator = ByteLineComparator.getInstance(fComparator);
+		fLines = null;
+	}
+
+	public BinarySearchWordnetJarFile(ByteBuffer buffer, String name,
+			IContentType<T> contentType) {
+		this(buffer, name, contentType, false);
+	}
+
+	/**
+	 * Constructs the data source, optionally building a table of line start
+	 * offsets. With the table, searches bisect whole lines and need no
+	 * resynchronization scan to find the start of the next line.
+	 */
+	public BinarySearchWordnetJarFile(ByteBuffer buffer, String name,
+			IContentType<T> contentType, boolean indexLines) {
+		super(buffer, name, contentType);
+		fComparator = getContentType().getLineComparator();
+		fKeyComparator = ByteLineComparator.getInstance(fComparator);
+		fLines = indexLines ? buildLineIndex() : null;
+	}
+
+	/**
+	 * Constructs the data source with a table of line start offsets that has
+	 * been built beforehand, e.g. by {@link WordnetSnapshot}.
+	 */
+	public BinarySearchWordnetJarFile(ByteBuffer buffer, String name,
+			IContentType<T> contentType, int[] lines) {
+		super(buffer, name, contentType);
+		fComparator = getContentType().getLineComparator();
+		fKeyComparator = ByteLineComparator.getInstance(fComparator);
+		fLines = lines;
+	}
+
+	/**
+	 * Returns the start offsets of all lines that are not comments. As in all
+	 * Wordnet distributions, comment lines are only expected at the head of
+	 * the file, so only those are decoded.
+	 */
+	protected int[] buildLineIndex() {
+		ByteBuffer buf = fBuffer;
+		int limit = buf.limit();
+		int pos = getFirstLineOffset();
+		int[] lines = new int[limit / AVERAGE_LINE_LENGTH + 1];
+		int count = 0;
+		while (pos < limit) {
+			if (count == lines.length) {
+				int[] tmp = new int[lines.length * 2];
+				System.arraycopy(lines, 0, tmp, 0, count);
+				lines = tmp;
+			}
+			lines[count++] = pos;
+			pos = skipLine(buf, pos);
+		}
+
+		int[] result = new int[count];
+		System.arraycopy(lines, 0, result, 0, count);
+		return result;
+	}
+
+	/**
+	 * Returns the start offset of the first line after the comment header.
+	 */
+	protected int getFirstLineOffset() {
+		ByteBuffer buf = fBuffer.duplicate();
+		int limit = buf.limit();
+		int pos = 0;
+		while (pos < limit) {
+			buf.position(pos);
+			String line = getLine(buf);
+			if (line == null || fDetector == null
+					|| !fDetector.isCommentLine(line))
+				break;
+			pos = buf.position();
+		}
+		return pos;
 	}
 
 	/**
 	 * (non-Javadoc)
 	 * 
-	 * @see edu.mit.wordnet.core.file.IDictionaryFile#getLine(java.lang.String)
+	 * @see WordnetJarFile#getLineView(java.lang.String, LineView)
 	 */
-	public String getLine(String key) {
-		synchronized (fBuffer) {
-			int start = 0;
-			int stop = fBuffer.limit();
-			int midpoint = (stop + start) / 2;
-			int compare;
-			String line;
-			while (start < midpoint | stop - start > 1) {
-
-				midpoint = (start + stop) / 2;
-				fBuffer.position(midpoint);
-				line = getLine(fBuffer);
-				if (midpoint > 0)
-					line = getLine(fBuffer);
-
-				// Fix for Bug 005 ============
-				if (line == null || line.length() == 0) {
-					// we have reached the last line of the file, so return
-					// the last line if it matches
-					fBuffer.position(start);
-					line = getLine(fBuffer);
-					String newline = getLine(fBuffer);
-					while (newline != null) {
-						line = newline;
-						newline = getLine(fBuffer);
-					}
-					return fComparator.compare(line, key) == 0 ? line : null;
-				}
-				// =============================
-				compare = fComparator.compare(line, key);
+	public boolean getLineView(String key, LineView view) {
+		// only absolute reads, so concurrent readers do not share a cursor
+		ByteBuffer buf = fBuffer;
+		long startTime = startLookup();
+		int probes = 0;
+		int scanned = 0;
+		if (fLines != null) {
+			int low = 0;
+			int high = fLines.length - 1;
+			while (low <= high) {
+				int mid = (low + high) >>> 1;
+				int compare = compareLine(buf, fLines[mid], key);
+				probes++;
 				if (compare == 0) {
-					return line;
+					return endLookup(startTime, view.set(buf, fLines[mid],
+							getLineEnd(buf, fLines[mid])), probes, scanned);
 				} else if (compare > 0) {
-					stop = midpoint;
+					high = mid - 1;
 				} else {
-					start = midpoint;
+					low = mid + 1;
 				}
 			}
+			return endLookup(startTime, null, probes, scanned);
+		}
+
+		int limit = buf.limit();
+		int start = 0;
+		int stop = limit;
+		int midpoint = (stop + start) / 2;
+		int compare;
+		int offset;
+		while (start < midpoint | stop - start > 1) {
+
+			midpoint = (start + stop) / 2;
+			offset = midpoint > 0 ? skipLine(buf, midpoint) : midpoint;
+			scanned += offset - midpoint;
+
+			// Fix for Bug 005 ============
+			if (offset >= limit || isLineEnd(buf.get(offset))) {
+				// we have reached the last line of the file, so return
+				// the last line if it matches
+				int last = start;
+				int pos = skipLine(buf, start);
+				while (pos < limit) {
+					int next = skipLine(buf, pos);
+					// a blank line at the end does not count
+					if (next == limit && isLineEnd(buf.get(pos)))
+						break;
+					last = pos;
+					pos = next;
+				}
+				scanned += pos - start;
+				boolean match = compareLine(buf, last, key) == 0
+						&& setEntryLine(buf, last, view);
+				return endLookup(startTime, match ? view : null, probes + 1,
+						scanned);
+			}
+			// =============================
+			compare = compareLine(buf, offset, key);
+			probes++;
+			if (compare == 0) {
+				return endLookup(startTime, setEntryLine(buf, offset, view) ? view
+						: null, probes, scanned);
+			} else if (compare > 0) {
+				stop = midpoint;
+			} else {
+				start = midpoint;
+			}
+		}
+		return endLookup(startTime, null, probes, scanned);
+	}
+
+	/**
+	 * Sets the view to the line at the offset, and returns <code>true</code>
+	 * unless it is a comment line, which is never the result of a lookup, as
+	 * the line index and the batch lookups do not hold comments either.
+	 */
+	private boolean setEntryLine(ByteBuffer buf, int offset, LineView view) {
+		return !isCommentLine(view.set(buf, offset, getLineEnd(buf, offset)));
+	}
+
+	/**
+	 * Sorts the keys in file order and resolves them in one sweep over the
+	 * file. Each search gallops forward from the line found for the previous
+	 * key before it bisects, so keys close together in the file only cost a
+	 * few probes.
+	 */
+	@Override
+	public List<String> getLines(Collection<String> keys) {
+		String[] array = keys.toArray(new String[keys.size()]);
+		final String[] sortKeys = new String[array.length];
+		Integer[] order = new Integer[array.length];
+		for (int i = 0; i < order.length; i++) {
+			sortKeys[i] = fKeyComparator != null ? fKeyComparator
+					.getSortKey(array[i]) : array[i];
+			order[i] = i;
+		}
+		final Comparator<String> comparator = fKeyComparator != null ? null
+				: fComparator;
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				if (comparator == null)
+					return sortKeys[a].compareTo(sortKeys[b]);
+				return comparator.compare(sortKeys[a], sortKeys[b]);
+			}
+		});
+
+		ByteBuffer buf = fBuffer;
+		String[] lines = new String[array.length];
+		int[] stats = new int[2];
+		int from = fLines != null ? 0 : getFirstLineOffset();
+		for (int i = 0; i < order.length; i++) {
+			String key = array[order[i]];
+			if (i > 0 && sortKeys[order[i - 1]].equals(sortKeys[order[i]])) {
+				lines[order[i]] = lines[order[i - 1]];
+				continue;
+			}
+
+			long startTime = startLookup();
+			stats[0] = stats[1] = 0;
+			int offset = -1;
+			if (fLines != null) {
+				from = gallopLines(buf, key, from, stats);
+				if (from < fLines.length
+						&& compareLine(buf, fLines[from], key) == 0)
+					offset = fLines[from];
+			} else {
+				from = gallopOffsets(buf, key, from, stats);
+				if (!isEnd(buf, from) && compareLine(buf, from, key) == 0)
+					offset = from;
+			}
+			LineView line = offset < 0 ? null : new LineView(buf, offset,
+					getLineEnd(buf, offset));
+			if (endLookup(startTime, line, stats[0] + 1, stats[1]))
+				lines[order[i]] = line.toString();
+		}
+		return Arrays.asList(lines);
+	}
+
+	/**
+	 * Returns the index of the first line from the specified one on that is
+	 * not ordered before the key, or the number of lines if there is none.
+	 */
+	private int gallopLines(ByteBuffer buf, String key, int from, int[] stats) {
+		int count = fLines.length;
+		int low = from;
+		int high = from;
+		int step = 1;
+		while (high < count && compareLine(buf, fLines[high], key) < 0) {
+			stats[0]++;
+			low = high + 1;
+			high = (int) Math.min((long) low + step, count);
+			step <<= 1;
+		}
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			stats[0]++;
+			if (compareLine(buf, fLines[mid], key) < 0) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Returns the start offset of the first line from the specified one on
+	 * that is not ordered before the key, or the end of the lines if there is
+	 * none. Byte positions are bisected, each standing for the first line
+	 * that starts at or after it.
+	 */
+	private int gallopOffsets(ByteBuffer buf, String key, int from,
+			int[] stats) {
+		int limit = buf.limit();
+		int low = from;
+		int high = from;
+		int step = AVERAGE_LINE_LENGTH;
+		while (isBefore(buf, lineStart(buf, high, from, stats), key, stats)) {
+			low = high + 1;
+			high = (int) Math.min((long) low + step, limit);
+			step <<= 1;
+		}
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (isBefore(buf, lineStart(buf, mid, from, stats), key, stats)) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
 		}
-		return null;
+		return lineStart(buf, high, from, stats);
+	}
+
+	/**
+	 * Returns the start of the first line at or after the specified position,
+	 * which must not be before the start of a line at the specified offset.
+	 */
+	private static int lineStart(ByteBuffer buf, int pos, int from,
+			int[] stats) {
+		if (pos == from)
+			return pos;
+		int offset = skipLine(buf, pos - 1);
+		stats[1] += offset - pos;
+		return offset;
+	}
+
+	private boolean isBefore(ByteBuffer buf, int offset, String key,
+			int[] stats) {
+		if (isEnd(buf, offset))
+			return false;
+		stats[0]++;
+		return compareLine(buf, offset, key) < 0;
+	}
+
+	/**
+	 * Returns whether there are no more lines at the specified offset, which
+	 * is the case at the limit and at blank lines trailing the file.
+	 */
+	private static boolean isEnd(ByteBuffer buf, int offset) {
+		return offset >= buf.limit() || isLineEnd(buf.get(offset));
+	}
+
+	/**
+	 * Compares the line starting at the specified absolute position to the
+	 * key. Only decodes the line if there is no byte level comparator.
+	 */
+	protected int compareLine(ByteBuffer buf, int offset, String key) {
+		if (fKeyComparator != null)
+			return fKeyComparator.compare(buf, offset, key);
+		return fComparator.compare(getLine(buf, offset), key);
+	}
+
+	private static boolean isLineEnd(byte b) {
+		return b == '\n' || b == '\r';
 	}
 
 	/*
@@ -103,58 +391,101 @@ public class BinarySearchWordnetJarFile<T> extends WordnetJarFile<T> {
 		}
 
 		protected void findFirstLine(String key) {
-			synchronized (fMyBuffer) {
-				int lastOffset = -1;
-				int start = 0;
-				int stop = fMyBuffer.limit();
-				int offset, midpoint = -1;
-				int compare;
-				String line;
-				while (start + 1 < stop) {
-					midpoint = (start + stop) / 2;
-					fMyBuffer.position(midpoint);
-					line = getLine(fMyBuffer);
-					offset = fMyBuffer.position();
-					line = getLine(fMyBuffer);
-
-					// Fix for Bug009: If the line is null, we've reached
-					// the end of the file, so just advance to the first line
-					if (line == null) {
-						fMyBuffer.position(fMyBuffer.limit());
-						return;
-					}
-
-					compare = fComparator.compare(line, key);
-					// if the key matches exactly, we know we have found
-					// the start of this pattern in the file
-					if (compare == 0) {
-						next = line;
-						return;
-					} else if (compare > 0) {
-						stop = midpoint;
-					} else {
-						start = midpoint;
-					}
-					// if the key starts a line, remember it, because
-					// it may be the first occurrence
-					if (line.startsWith(key)) {
-						lastOffset = offset;
-					}
+			if (fLines != null) {
+				findFirstIndexedLine(key);
+				return;
+			}
+
+			int lastOffset = -1;
+			int limit = fMyBuffer.limit();
+			int start = 0;
+			int stop = limit;
+			int offset, midpoint = -1;
+			int compare;
+			while (start + 1 < stop) {
+				midpoint = (start + stop) / 2;
+				offset = skipLine(fMyBuffer, midpoint);
+
+				// Fix for Bug009: If the line is null, we've reached
+				// the end of the file, so just advance to the first line
+				if (offset >= limit) {
+					fMyBuffer.position(limit);
+					return;
 				}
 
-				// Getting here means that we didn't find an exact match
-				// to the key, so we take the last line that started
-				// with the pattern
-				if (lastOffset > -1) {
-					fMyBuffer.position(lastOffset);
+				compare = compareLine(fMyBuffer, offset, key);
+				// if the key matches exactly, we know we have found
+				// the start of this pattern in the file
+				if (compare == 0) {
+					fMyBuffer.position(offset);
 					next = getLine(fMyBuffer);
 					return;
+				} else if (compare > 0) {
+					stop = midpoint;
+				} else {
+					start = midpoint;
+				}
+				// if the key starts a line, remember it, because
+				// it may be the first occurrence
+				if (ByteLineComparator.startsWith(fMyBuffer, offset, key)) {
+					lastOffset = offset;
 				}
+			}
 
-				// If we didn't have any lines that matched the pattern
-				// then just advance to the first non-comment
-				fMyBuffer.position(fMyBuffer.limit());
+			// The search never looks at the first line, which holds the
+			// first key if the file has no comment header
+			if (limit > 0
+					&& compareLine(fMyBuffer, 0, key) == 0
+					&& !isCommentLine(new LineView(fMyBuffer, 0, getLineEnd(
+							fMyBuffer, 0)))) {
+				fMyBuffer.position(0);
+				next = getLine(fMyBuffer);
+				return;
 			}
+
+			// Getting here means that we didn't find an exact match
+			// to the key, so we take the last line that started
+			// with the pattern
+			if (lastOffset > -1) {
+				fMyBuffer.position(lastOffset);
+				next = getLine(fMyBuffer);
+				return;
+			}
+
+			// If we didn't have any lines that matched the pattern
+			// then just advance to the first non-comment
+			fMyBuffer.position(fMyBuffer.limit());
+		}
+
+		/**
+		 * Finds the first line that is not ordered before the key using the
+		 * line offset table, and starts there if it matches or starts with
+		 * the key.
+		 */
+		protected void findFirstIndexedLine(String key) {
+			int low = 0;
+			int high = fLines.length;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (compareLine(fMyBuffer, fLines[mid], key) < 0) {
+					low = mid + 1;
+				} else {
+					high = mid;
+				}
+			}
+
+			if (low < fLines.length) {
+				int offset = fLines[low];
+				if (compareLine(fMyBuffer, offset, key) == 0
+						|| ByteLineComparator.startsWith(fMyBuffer, offset,
+								key)) {
+					fMyBuffer.position(offset);
+					next = getLine(fMyBuffer);
+					return;
+				}
+			}
+
+			fMyBuffer.position(fMyBuffer.limit());
 		}
 	}
 }
\ No newline at end of file
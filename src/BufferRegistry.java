@@ -0,0 +1,281 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * Reference-counted registry of the read-only buffers holding the content of
+ * Wordnet files, so that several providers in one JVM share a single copy of
+ * each file. The buffers are keyed by the name and size of the file and a
+ * hash of its content, e.g. the CRC-32 of a ZIP entry, so dictionaries
+ * loaded from different JAR files with the same Wordnet version share their
+ * files as well, while different versions do not. The key also holds the
+ * way the buffer is loaded, so a provider that memory-maps its files never
+ * gets a heap copy loaded by another provider, and vice versa.
+ * <p>
+ * A provider acquires the buffer of each file it loads and releases it when
+ * it is closed. The first acquisition of a key loads the buffer; the others
+ * get a duplicate of it, which shares the content but not the position. When
+ * the last reference is released, the registry drops the buffer, so its
+ * memory is reclaimed once the data sources using it are gone. A
+ * {@link Lease} keeps track of the references taken through it, so that they
+ * can be released together.
+ * 
+ * @author Markus HAENSE
+ */
+public class BufferRegistry {
+
+	private static final BufferRegistry DEFAULT = new BufferRegistry();
+
+	private final Map<Key, Entry> fEntries = new HashMap<Key, Entry>();
+
+	/**
+	 * Returns the registry shared by all providers which have not been given
+	 * another one.
+	 */
+	public static BufferRegistry getDefault() {
+		return DEFAULT;
+	}
+
+	/**
+	 * Returns the buffer registered for the key, loading it with the
+	 * specified loader if there is none, and adds a reference to it.
+	 * Concurrent acquisitions of the same key load the buffer only once. If
+	 * loading fails, no reference is added.
+	 */
+	public ByteBuffer acquire(Key key, Callable<ByteBuffer> loader)
+			throws IOException {
+		Entry entry;
+		synchronized (this) {
+			entry = fEntries.get(key);
+			if (entry == null) {
+				entry = new Entry();
+				fEntries.put(key, entry);
+			}
+			entry.references++;
+		}
+
+		boolean loaded = false;
+		try {
+			synchronized (entry) {
+				if (entry.buffer == null)
+					entry.buffer = load(loader);
+				loaded = true;
+				return entry.buffer.duplicate();
+			}
+		} finally {
+			if (!loaded)
+				release(key);
+		}
+	}
+
+	/**
+	 * Calls the loader, rethrowing checked exceptions other than
+	 * {@code IOException} wrapped in one.
+	 */
+	static ByteBuffer load(Callable<ByteBuffer> loader) throws IOException {
+		try {
+			return loader.call();
+		} catch (IOException e) {
+			throw e;
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * Removes a reference to the buffer registered for the key, and drops the
+	 * buffer if it was the last one.
+	 * 
+	 * @throws IllegalStateException
+	 *             if the key has no references
+	 */
+	public synchronized void release(Key key) {
+		Entry entry = fEntries.get(key);
+		if (entry == null)
+			throw new IllegalStateException("Not acquired: " + key);
+		if (--entry.references == 0)
+			fEntries.remove(key);
+	}
+
+	/**
+	 * Returns a new lease on buffers of this registry.
+	 */
+	public Lease newLease() {
+		return new Lease();
+	}
+
+	/**
+	 * Returns the number of references to the buffer registered for the key,
+	 * which is 0 if there is none.
+	 */
+	public synchronized int getReferenceCount(Key key) {
+		Entry entry = fEntries.get(key);
+		return entry == null ? 0 : entry.references;
+	}
+
+	/**
+	 * Returns the number of buffers registered.
+	 */
+	public synchronized int size() {
+		return fEntries.size();
+	}
+
+	/**
+	 * Returns the total number of bytes of the buffers registered.
+	 */
+	public synchronized long getByteCount() {
+		long bytes = 0;
+		for (Entry entry : fEntries.values()) {
+			ByteBuffer buffer = entry.buffer;
+			if (buffer != null)
+				bytes += buffer.capacity();
+		}
+		return bytes;
+	}
+
+	/**
+	 * The way the content of a file is held in memory.
+	 */
+	public enum Mode {
+		/** A copy in a heap buffer */
+		HEAP,
+		/** A copy in a direct buffer */
+		DIRECT,
+		/** The file memory-mapped, if possible */
+		MAPPED
+	}
+
+	/**
+	 * Identifies the content of a file and the way it is loaded.
+	 */
+	public static final class Key {
+		private final String fName;
+		private final long fSize;
+		private final long fHash;
+		private final Mode fMode;
+
+		/**
+		 * @param name
+		 *            the name of the file, e.g. {@code index.noun}
+		 * @param size
+		 *            the size of the file in bytes
+		 * @param hash
+		 *            a hash of the content of the file, such as its CRC-32
+		 * @param mode
+		 *            the way the content is loaded
+		 */
+		public Key(String name, long size, long hash, Mode mode) {
+			if (name == null || mode == null)
+				throw new NullPointerException();
+			fName = name;
+			fSize = size;
+			fHash = hash;
+			fMode = mode;
+		}
+
+		public String getName() {
+			return fName;
+		}
+
+		public long getSize() {
+			return fSize;
+		}
+
+		public long getHash() {
+			return fHash;
+		}
+
+		public Mode getMode() {
+			return fMode;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key))
+				return false;
+			Key other = (Key) obj;
+			return fSize == other.fSize && fHash == other.fHash
+					&& fMode == other.fMode && fName.equals(other.fName);
+		}
+
+		@Override
+		public int hashCode() {
+			return (fName.hashCode() * 31 + (int) (fHash ^ (fHash >>> 32))
+					^ (int) fSize) * 31 + fMode.ordinal();
+		}
+
+		@Override
+		public String toString() {
+			return fName + " (" + fSize + " bytes, hash "
+					+ Long.toHexString(fHash) + ", " + fMode + ")";
+		}
+	}
+
+	/**
+	 * The references to buffers of the registry taken by one user, e.g. the
+	 * data sources loaded by one opening of a provider. Closing the lease
+	 * releases them all; buffers cannot be acquired through it afterwards.
+	 */
+	public final class Lease implements Closeable {
+		private final List<Key> fKeys = new ArrayList<Key>();
+		private boolean fClosed = false;
+
+		private Lease() {
+		}
+
+		/**
+		 * Acquires the buffer registered for the key from the registry, and
+		 * keeps the reference until the lease is closed.
+		 * 
+		 * @throws IllegalStateException
+		 *             if the lease has been closed
+		 * @see BufferRegistry#acquire(Key, Callable)
+		 */
+		public ByteBuffer acquire(Key key, Callable<ByteBuffer> loader)
+				throws IOException {
+			ByteBuffer buffer = BufferRegistry.this.acquire(key, loader);
+			synchronized (fKeys) {
+				if (!fClosed) {
+					fKeys.add(key);
+					return buffer;
+				}
+			}
+			release(key);
+			throw new IllegalStateException("Lease closed");
+		}
+
+		/**
+		 * Returns the number of references held by the lease.
+		 */
+		public int size() {
+			synchronized (fKeys) {
+				return fKeys.size();
+			}
+		}
+
+		/**
+		 * Releases all references held by the lease. Closing it again has no
+		 * effect.
+		 */
+		public void close() {
+			synchronized (fKeys) {
+				fClosed = true;
+				for (Key key : fKeys)
+					release(key);
+				fKeys.clear();
+			}
+		}
+	}
+
+	private static final class Entry {
+		int references;
+		ByteBuffer buffer;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,144 @@
+import java.nio.ByteBuffer;
+import java.util.Comparator;
+
+import edu.mit.jwi.data.compare.ExceptionLineComparator;
+import edu.mit.jwi.data.compare.ICommentDetector;
+import edu.mit.jwi.data.compare.ILineComparator;
+import edu.mit.jwi.data.compare.IndexLineComparator;
+import edu.mit.jwi.data.compare.SenseKeyLineComparator;
+
+/**
+ * Compares the key field of a line, i.e. everything up to the first space,
+ * directly against the bytes of a buffer. Bytes are decoded the same way as in
+ * {@link WordnetJarFile#getLine(ByteBuffer)}, so the results are consistent
+ * with the JWI line comparator it stands in for, but no {@code String} is
+ * built for the line.
+ * <p>
+ * Only the comparators of the index, exception and sense files are supported;
+ * use {@link #getInstance(Comparator)} to find out whether a comparator has a
+ * byte level counterpart.
+ * 
+ * @author Markus HAENSE
+ */
+public class ByteLineComparator {
+
+	private static final char SPACE = ' ';
+
+	private final Comparator<String> fComparator;
+	private final ICommentDetector fDetector;
+	private final boolean fIgnoreCase;
+
+	protected ByteLineComparator(Comparator<String> comparator,
+			ICommentDetector detector, boolean ignoreCase) {
+		fComparator = comparator;
+		fDetector = detector;
+		fIgnoreCase = ignoreCase;
+	}
+
+	/**
+	 * Returns the byte level counterpart of the specified line comparator, or
+	 * <code>null</code> if there is none and lines have to be decoded.
+	 */
+	public static ByteLineComparator getInstance(Comparator<String> comparator) {
+		if (comparator == null)
+			return null;
+		Class<?> type = comparator.getClass();
+		if (type == IndexLineComparator.class) {
+			// lemmas are compared case-insensitively, comments go first
+			return new ByteLineComparator(comparator,
+					((ILineComparator) comparator).getCommentDetector(), true);
+		}
+		if (type == ExceptionLineComparator.class
+				|| type == SenseKeyLineComparator.class) {
+			return new ByteLineComparator(comparator, null, false);
+		}
+		return null;
+	}
+
+	/**
+	 * Compares the line starting at the specified absolute position of the
+	 * buffer to the key, with the semantics of
+	 * {@link Comparator#compare(Object, Object)}. The buffer's position is not
+	 * changed.
+	 */
+	public int compare(ByteBuffer buf, int start, String key) {
+		if (fDetector != null) {
+			boolean lineComment = isCommentLine(buf, start);
+			boolean keyComment = fDetector.isCommentLine(key);
+			if (lineComment & keyComment) {
+				// rare enough to decode
+				return fComparator.compare(
+						WordnetJarFile.getLine(buf, start), key);
+			} else if (lineComment & !keyComment) {
+				return -1;
+			} else if (!lineComment & keyComment) {
+				return 1;
+			}
+		}
+
+		int limit = buf.limit();
+		int keyLength = key.indexOf(SPACE);
+		if (keyLength == -1)
+			keyLength = key.length();
+
+		int i = start;
+		int k = 0;
+		while (true) {
+			char c = i < limit ? (char) buf.get(i) : '\n';
+			boolean lineEnd = c == SPACE || c == '\n' || c == '\r';
+			boolean keyEnd = k == keyLength;
+			if (lineEnd | keyEnd) {
+				return lineEnd ? (keyEnd ? 0 : -1) : 1;
+			}
+
+			char d = key.charAt(k);
+			if (fIgnoreCase) {
+				c = Character.toLowerCase(c);
+				d = Character.toLowerCase(d);
+			}
+			if (c != d)
+				return c - d;
+			i++;
+			k++;
+		}
+	}
+
+	/**
+	 * Returns a string whose natural order is the order of the line of the
+	 * key in the file, so keys can be sorted with the fast
+	 * {@link String#compareTo(String)}.
+	 */
+	public String getSortKey(String key) {
+		int length = key.indexOf(SPACE);
+		if (length != -1 && !(fDetector != null && fDetector.isCommentLine(key)))
+			key = key.substring(0, length);
+		return fIgnoreCase ? key.toLowerCase() : key;
+	}
+
+	/**
+	 * Returns <code>true</code> if the line starting at the specified absolute
+	 * position of the buffer starts with the specified prefix, like
+	 * {@link String#startsWith(String)}.
+	 */
+	public static boolean startsWith(ByteBuffer buf, int start, String prefix) {
+		int limit = buf.limit();
+		int length = prefix.length();
+		if (start + length > limit)
+			return false;
+		for (int i = 0; i < length; i++) {
+			char c = (char) buf.get(start + i);
+			if (c == '\n' || c == '\r' || c != prefix.charAt(i))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Mirrors {@link edu.mit.jwi.data.compare.CommentComparator}, which
+	 * considers a line a comment if it starts with two spaces.
+	 */
+	protected static boolean isCommentLine(ByteBuffer buf, int start) {
+		return start + 1 < buf.limit() && buf.get(start) == SPACE
+				&& buf.get(start + 1) == SPACE;
+	}
+}
\ No newline at end of file
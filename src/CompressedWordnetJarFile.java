@@ -0,0 +1,602 @@
+import java.nio.ByteBuffer;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import edu.mit.jwi.data.IContentType;
+import edu.mit.jwi.item.Version;
+
+/**
+ * Data source that keeps its file compressed in memory. The file is cut into
+ * blocks of whole lines of about {@link #DEFAULT_BLOCK_SIZE} bytes, and each
+ * block is deflated on its own. A lookup inflates only the block that holds
+ * the line, and the most recently inflated blocks are kept in a small cache.
+ * <p>
+ * Data files are addressed by byte offset as with
+ * {@link DirectAccessWordnetJarFile}, using a table of the uncompressed start
+ * offset of each block. The lines of other files are sorted, so the key of
+ * the first line of each block is kept uncompressed; a lookup bisects these
+ * keys and then scans the one block that may hold the line.
+ * 
+ * @author Markus HAENSE
+ */
+public class CompressedWordnetJarFile<T> extends WordnetJarFile<T> {
+
+	/**
+	 * The default number of uncompressed bytes after which a block ends with
+	 * the current line.
+	 */
+	public static final int DEFAULT_BLOCK_SIZE = 4096;
+
+	/**
+	 * The default number of inflated blocks that are cached.
+	 */
+	public static final int DEFAULT_CACHE_SIZE = 32;
+
+	private final boolean fDirect;
+
+	protected final Comparator<String> fComparator;
+
+	protected final ByteLineComparator fKeyComparator;
+
+	/** Uncompressed start offset of each block, and the length at the end */
+	private final int[] fBlockStarts;
+
+	/** Start of each deflated block in fData, and its length at the end */
+	private final int[] fDataStarts;
+
+	private final byte[] fData;
+
+	/**
+	 * Key of the first line of each block that is not a comment, or
+	 * <code>null</code> for data files
+	 */
+	private final String[] fBlockKeys;
+
+	/**
+	 * Inflaters are costly to create, so each thread keeps one for its
+	 * lifetime, shared by all compressed sources. Its end() is never called:
+	 * the native memory of an Inflater is only freed once it has become
+	 * unreachable after its thread ended and has been garbage collected, so a
+	 * pooled thread holds on to its Inflater for as long as it lives.
+	 */
+	private static final ThreadLocal<Inflater> INFLATER = new ThreadLocal<Inflater>() {
+		@Override
+		protected Inflater initialValue() {
+			return new Inflater();
+		}
+	};
+
+	/** Inflated blocks, each in the slot of its number modulo the size */
+	private final AtomicReferenceArray<Block> fCache;
+
+	public CompressedWordnetJarFile(ByteBuffer buffer, String name,
+			IContentType<T> contentType, boolean direct) {
+		this(buffer, name, contentType, direct, DEFAULT_BLOCK_SIZE,
+				DEFAULT_CACHE_SIZE);
+	}
+
+	/**
+	 * Compresses the content of the buffer, which is not referenced
+	 * afterwards.
+	 * 
+	 * @param direct
+	 *            <code>true</code> if the lines are looked up by their byte
+	 *            offset, like in data files, <code>false</code> if they are
+	 *            sorted by the line comparator of the content type
+	 */
+	public CompressedWordnetJarFile(ByteBuffer buffer, String name,
+			IContentType<T> contentType, boolean direct, int blockSize,
+			int cacheSize) {
+		super(name, contentType, Version.extractVersion(contentType, buffer));
+		fDirect = direct;
+		fComparator = getContentType().getLineComparator();
+		fKeyComparator = ByteLineComparator.getInstance(fComparator);
+		fCache = new AtomicReferenceArray<Block>(cacheSize);
+
+		int limit = buffer.limit();
+		int blocks = 0;
+		int[] starts = new int[limit / blockSize + 2];
+		for (int pos = 0; pos < limit; pos = skipLine(buffer,
+				Math.min(pos + blockSize, limit) - 1)) {
+			starts[blocks++] = pos;
+		}
+		starts[blocks] = limit;
+		fBlockStarts = new int[blocks + 1];
+		System.arraycopy(starts, 0, fBlockStarts, 0, blocks + 1);
+
+		fDataStarts = new int[blocks + 1];
+		fBlockKeys = direct ? null : new String[blocks];
+		byte[] data = new byte[limit / 2 + 64];
+		byte[] block = new byte[0];
+		int length = 0;
+		ByteBuffer buf = buffer.duplicate();
+		Deflater deflater = new Deflater();
+		try {
+			for (int i = 0; i < blocks; i++) {
+				int size = fBlockStarts[i + 1] - fBlockStarts[i];
+				if (block.length < size)
+					block = new byte[size];
+				buf.position(fBlockStarts[i]);
+				buf.get(block, 0, size);
+				if (!direct)
+					fBlockKeys[i] = firstKey(ByteBuffer.wrap(block, 0, size));
+
+				fDataStarts[i] = length;
+				deflater.reset();
+				deflater.setInput(block, 0, size);
+				deflater.finish();
+				while (!deflater.finished()) {
+					if (length == data.length) {
+						byte[] tmp = new byte[data.length * 2];
+						System.arraycopy(data, 0, tmp, 0, length);
+						data = tmp;
+					}
+					length += deflater.deflate(data, length, data.length
+							- length);
+				}
+			}
+		} finally {
+			deflater.end();
+		}
+		fDataStarts[blocks] = length;
+		fData = new byte[length];
+		System.arraycopy(data, 0, fData, 0, length);
+	}
+
+	/**
+	 * Returns the first field of the first line that is not a comment, or
+	 * <code>null</code> if there is none.
+	 */
+	private String firstKey(ByteBuffer buf) {
+		for (int pos = 0; pos < buf.limit(); pos = skipLine(buf, pos)) {
+			String line = getLine(buf, pos);
+			if (fDetector != null && fDetector.isCommentLine(line))
+				continue;
+			int space = line.indexOf(' ');
+			return space == -1 ? line : line.substring(0, space);
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the number of bytes of the uncompressed file.
+	 */
+	public int getLength() {
+		return fBlockStarts[fBlockStarts.length - 1];
+	}
+
+	/**
+	 * Returns the number of bytes of the compressed blocks.
+	 */
+	public int getCompressedLength() {
+		return fData.length;
+	}
+
+	/**
+	 * Points the view into the inflated block that holds the line, which is
+	 * not modified even if it is evicted from the cache.
+	 * 
+	 * @see WordnetJarFile#getLineView(java.lang.String, LineView)
+	 */
+	public boolean getLineView(String key, LineView view) {
+		long startTime = startLookup();
+		if (fDirect) {
+			int offset = parseOffset(key);
+			if (offset < 0)
+				return endLookup(startTime, null, 0, 0);
+			int block = findBlock(offset);
+			ByteBuffer buf = ByteBuffer.wrap(getBlock(block));
+			int pos = offset - fBlockStarts[block];
+			if (!ByteLineComparator.startsWith(buf, pos, key))
+				return endLookup(startTime, null, 1, buf.limit());
+			return endLookup(startTime, view.set(buf, pos, getLineEnd(buf,
+					pos)), 1, buf.limit());
+		}
+
+		int[] stats = fMetrics == null ? null : new int[1];
+		int block = findKeyBlock(key, stats);
+		int probes = stats == null ? 0 : stats[0];
+		ByteBuffer buf = ByteBuffer.wrap(getBlock(block));
+		for (int pos = 0; pos < buf.limit(); pos = skipLine(buf, pos)) {
+			int compare = compareLine(buf, pos, key);
+			probes++;
+			if (compare == 0) {
+				// comment lines are no results, as in the other sources
+				view.set(buf, pos, getLineEnd(buf, pos));
+				return endLookup(startTime, isCommentLine(view) ? null : view,
+						probes, pos);
+			}
+			if (compare > 0)
+				break;
+		}
+		return endLookup(startTime, null, probes, buf.limit());
+	}
+
+	/**
+	 * Compares the line starting at the specified position to the key. Only
+	 * decodes the line if there is no byte level comparator.
+	 */
+	protected int compareLine(ByteBuffer buf, int offset, String key) {
+		if (fKeyComparator != null)
+			return fKeyComparator.compare(buf, offset, key);
+		return fComparator.compare(getLine(buf, offset), key);
+	}
+
+	/**
+	 * Returns the number of the last block whose first key is not ordered
+	 * after the key, or the first block if there is none. Adds the number of
+	 * comparisons to the first element of the stats, if any.
+	 */
+	private int findKeyBlock(String key, int[] stats) {
+		int low = 0;
+		int high = fBlockKeys.length - 1;
+		int block = 0;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (stats != null)
+				stats[0]++;
+			if (fBlockKeys[mid] == null
+					|| fComparator.compare(fBlockKeys[mid], key) <= 0) {
+				block = mid;
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return block;
+	}
+
+	/**
+	 * Returns the byte offset the key denotes, or -1 if it is none.
+	 */
+	private int parseOffset(String key) {
+		try {
+			int offset = Integer.parseInt(key);
+			return offset < getLength() ? offset : -1;
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Returns the number of the block that holds the specified uncompressed
+	 * offset.
+	 */
+	private int findBlock(int offset) {
+		int low = 0;
+		int high = fBlockStarts.length - 2;
+		while (low < high) {
+			int mid = (low + high + 1) >>> 1;
+			if (fBlockStarts[mid] <= offset) {
+				low = mid;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Returns the inflated block from the cache, inflating it if it is not
+	 * cached. Concurrent callers may both inflate the same block; the cache
+	 * keeps whichever result is stored last.
+	 */
+	protected byte[] getBlock(int block) {
+		int slots = fCache.length();
+		if (slots == 0)
+			return inflate(block);
+		int slot = block % slots;
+		Block cached = fCache.get(slot);
+		if (cached != null && cached.number == block)
+			return cached.content;
+		byte[] content = inflate(block);
+		fCache.set(slot, new Block(block, content));
+		return content;
+	}
+
+	/**
+	 * Inflates the specified block.
+	 */
+	protected byte[] inflate(int block) {
+		byte[] content = new byte[fBlockStarts[block + 1] - fBlockStarts[block]];
+		Inflater inflater = INFLATER.get();
+		inflater.reset();
+		try {
+			inflater.setInput(fData, fDataStarts[block], fDataStarts[block + 1]
+					- fDataStarts[block]);
+			int length = 0;
+			while (length < content.length && !inflater.finished())
+				length += inflater.inflate(content, length, content.length
+						- length);
+			return content;
+		} catch (DataFormatException e) {
+			throw new IllegalStateException("corrupt block " + block + " in "
+					+ getName(), e);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see edu.mit.jwi.data.IDataSource#iterator()
+	 */
+	public Iterator<String> iterator() {
+		return new BlockLineIterator(0, 0, fBlockStarts.length - 1);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see edu.mit.jwi.data.IDataSource#iterator(java.lang.String)
+	 */
+	public Iterator<String> iterator(String key) {
+		int blocks = fBlockStarts.length - 1;
+		if (key == null || key.trim().length() == 0)
+			return iterator();
+		key = key.trim();
+
+		if (fDirect) {
+			int offset = parseOffset(key);
+			if (offset < 0)
+				return new BlockLineIterator(blocks, 0, blocks);
+			// like DirectLineIterator, return the first line as is
+			int block = findBlock(offset);
+			return new BlockLineIterator(block, offset - fBlockStarts[block],
+					blocks, false);
+		}
+
+		// find the first line that is not ordered before the key, and start
+		// there if it matches or starts with the key
+		for (int block = findKeyBlock(key, null); block < blocks; block++) {
+			ByteBuffer buf = ByteBuffer.wrap(getBlock(block));
+			for (int pos = 0; pos < buf.limit(); pos = skipLine(buf, pos)) {
+				int compare = compareLine(buf, pos, key);
+				if (compare < 0)
+					continue;
+				if (compare == 0
+						|| ByteLineComparator.startsWith(buf, pos, key))
+					return new BlockLineIterator(block, pos, blocks);
+				return new BlockLineIterator(blocks, 0, blocks);
+			}
+		}
+		return new BlockLineIterator(blocks, 0, blocks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see WordnetJarFile#viewIterator()
+	 */
+	@Override
+	public Iterator<LineView> viewIterator() {
+		return new BlockViewIterator(0, 0, fBlockStarts.length - 1, true);
+	}
+
+	/**
+	 * Returns a stream over all lines of the file that are not comments. A
+	 * parallel stream splits the file at block boundaries, so the blocks are
+	 * inflated concurrently.
+	 * 
+	 * @see WordnetJarFile#lines()
+	 */
+	@Override
+	public Stream<String> lines() {
+		return StreamSupport.stream(new BlockSpliterator(0,
+				fBlockStarts.length - 1), false);
+	}
+
+	private static class Block {
+		final int number;
+		final byte[] content;
+
+		Block(int number, byte[] content) {
+			this.number = number;
+			this.content = content;
+		}
+	}
+
+	/**
+	 * Iterates over the lines of a range of blocks, skipping comments, and
+	 * points one view at each line in turn. It inflates the blocks itself, so
+	 * long scans do not evict the blocks in the cache.
+	 */
+	public class BlockViewIterator implements Iterator<LineView> {
+
+		private int fBlock;
+		private final int fEnd;
+		private ByteBuffer fMyBuffer;
+		private int fPosition;
+		private boolean fSkipComment;
+		private final LineView fLine = new LineView();
+		private int fNextStart = -1;
+		private int fNextEnd;
+
+		/**
+		 * Constructs the iterator from the specified position in the first
+		 * block up to the end of the block before the last one. If
+		 * <code>skipComment</code> is <code>false</code>, the first line is
+		 * returned even if it is a comment.
+		 */
+		public BlockViewIterator(int first, int position, int end,
+				boolean skipComment) {
+			fBlock = first;
+			fEnd = end;
+			fPosition = position;
+			fSkipComment = skipComment;
+			if (first < end)
+				fMyBuffer = ByteBuffer.wrap(inflate(first));
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.util.Iterator#hasNext()
+		 */
+		public boolean hasNext() {
+			while (fNextStart < 0 && fBlock < fEnd) {
+				if (fPosition >= fMyBuffer.limit()) {
+					if (++fBlock < fEnd)
+						fMyBuffer = ByteBuffer.wrap(inflate(fBlock));
+					fPosition = 0;
+					continue;
+				}
+				int start = fPosition;
+				int end = getLineEnd(fMyBuffer, start);
+				fPosition = skipLine(fMyBuffer, start);
+				if (!fSkipComment
+						|| !isCommentLine(fLine.set(fMyBuffer, start, end))) {
+					fNextStart = start;
+					fNextEnd = end;
+				}
+				fSkipComment = true;
+			}
+			return fNextStart >= 0;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.util.Iterator#next()
+		 */
+		public LineView next() {
+			if (!hasNext())
+				throw new NoSuchElementException();
+			fLine.set(fMyBuffer, fNextStart, fNextEnd);
+			fNextStart = -1;
+			if (fMetrics != null)
+				fMetrics.recordIteration(getContentType(), 1);
+			return fLine;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.util.Iterator#remove()
+		 */
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	/**
+	 * Iterates over the lines of a range of blocks as strings.
+	 */
+	public class BlockLineIterator implements Iterator<String> {
+
+		private final BlockViewIterator fLines;
+
+		/**
+		 * Constructs the iterator from the specified line start in the first
+		 * block up to the end of the block before the last one.
+		 */
+		public BlockLineIterator(int first, int position, int end) {
+			this(first, position, end, true);
+		}
+
+		/**
+		 * @see BlockViewIterator#BlockViewIterator(int, int, int, boolean)
+		 */
+		public BlockLineIterator(int first, int position, int end,
+				boolean skipComment) {
+			fLines = new BlockViewIterator(first, position, end, skipComment);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.util.Iterator#hasNext()
+		 */
+		public boolean hasNext() {
+			return fLines.hasNext();
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.util.Iterator#next()
+		 */
+		public String next() {
+			return fLines.next().toString();
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.util.Iterator#remove()
+		 */
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	/**
+	 * Traverses the lines of a range of blocks. It splits the range in half
+	 * until it has started the traversal.
+	 */
+	protected class BlockSpliterator implements Spliterator<String> {
+
+		private int fFirst;
+		private final int fEnd;
+		private BlockLineIterator fLines;
+
+		public BlockSpliterator(int first, int end) {
+			fFirst = first;
+			fEnd = end;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.util.Spliterator#tryAdvance(java.util.function.Consumer)
+		 */
+		public boolean tryAdvance(Consumer<? super String> action) {
+			if (fLines == null)
+				fLines = new BlockLineIterator(fFirst, 0, fEnd);
+			if (!fLines.hasNext())
+				return false;
+			action.accept(fLines.next());
+			return true;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.util.Spliterator#trySplit()
+		 */
+		public Spliterator<String> trySplit() {
+			if (fLines != null || fEnd - fFirst < 2)
+				return null;
+			int mid = (fFirst + fEnd) >>> 1;
+			Spliterator<String> prefix = new BlockSpliterator(fFirst, mid);
+			fFirst = mid;
+			return prefix;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.util.Spliterator#estimateSize()
+		 */
+		public long estimateSize() {
+			return fBlockStarts[fEnd] - fBlockStarts[fFirst];
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.util.Spliterator#characteristics()
+		 */
+		public int characteristics() {
+			return ORDERED | NONNULL | IMMUTABLE;
+		}
+	}
+}
@@ -0,0 +1,709 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import edu.mit.jwi.ItemCache;
+import edu.mit.jwi.item.IExceptionEntry;
+import edu.mit.jwi.item.IExceptionEntryID;
+import edu.mit.jwi.item.IIndexWord;
+import edu.mit.jwi.item.IIndexWordID;
+import edu.mit.jwi.item.ISenseEntry;
+import edu.mit.jwi.item.ISenseKey;
+import edu.mit.jwi.item.ISynset;
+import edu.mit.jwi.item.ISynsetID;
+import edu.mit.jwi.item.IWord;
+import edu.mit.jwi.item.IWordID;
+import edu.mit.jwi.item.POS;
+
+/**
+ * Item cache for dictionaries which are shared between many threads. Unlike
+ * the default {@code ItemCache}, which keeps one synchronized map per item
+ * type and drops arbitrary entries once the maximum capacity is exceeded,
+ * this cache keeps all items in one table which is split into independently
+ * locked segments. Lookups do not take any lock.
+ * <p>
+ * Synsets and words with a known word number are keyed by a single
+ * {@code long} made of their part of speech, offset and number, so no key
+ * object is allocated for them. All other items are keyed by a {@code long}
+ * and a string, i.e. the lemma, surface form or sense key.
+ * <p>
+ * The cache is bounded by an estimate of the memory its items use, see
+ * {@link #setMaximumWeight(long)}, and optionally by the number of entries,
+ * see {@link #setMaximumCapacity(int)}. When a segment is full, the entry
+ * least frequently used among a small random sample is a candidate for
+ * eviction, and the new item is only admitted if it was used more often than
+ * that candidate (TinyLFU). Use frequencies are approximated by a count-min
+ * sketch of 4-bit counters which are halved periodically, so old popularity
+ * fades out. The bounds are enforced when items are added.
+ * <p>
+ * Lookups do not write to shared memory either: each thread records the
+ * uses it sees in a small buffer of its own, which is drained into the
+ * sketch under its lock when it is full or when the thread adds an item, as
+ * the read buffers of W-TinyLFU do. The statistics are counted in
+ * {@code LongAdder}s.
+ * 
+ * @author Markus HAENSE
+ */
+public class ConcurrentItemCache extends ItemCache {
+
+	/**
+	 * The default maximum weight of the cache, in bytes.
+	 */
+	public static final long DEFAULT_MAXIMUM_WEIGHT = 64L << 20;
+
+	private static final int SEGMENT_SHIFT = 4;
+	private static final int SEGMENTS = 1 << SEGMENT_SHIFT;
+	private static final int SAMPLE_SIZE = 8;
+	private static final int READ_BUFFER_SIZE = 64;
+
+	// The kind of item is stored in the highest byte of the key
+	private static final long SYNSET = 1L << 56;
+	private static final long WORD = 2L << 56;
+	private static final long WORD_BY_LEMMA = 3L << 56;
+	private static final long WORD_BY_KEY = 4L << 56;
+	private static final long INDEX_WORD = 5L << 56;
+	private static final long EXCEPTION_ENTRY = 6L << 56;
+	private static final long SENSE_ENTRY = 7L << 56;
+
+	private final Segment[] fSegments;
+	private volatile long fMaximumWeight;
+	private volatile FrequencySketch fSketch;
+	private final ThreadLocal<ReadBuffer> fReadBuffers = new ThreadLocal<ReadBuffer>() {
+		@Override
+		protected ReadBuffer initialValue() {
+			return new ReadBuffer();
+		}
+	};
+
+	/**
+	 * Constructs a cache bounded by the default maximum weight and not bounded
+	 * by the number of entries.
+	 */
+	public ConcurrentItemCache() {
+		this(DEFAULT_MAXIMUM_WEIGHT, -1);
+	}
+
+	/**
+	 * Constructs a cache with the specified bounds.
+	 * 
+	 * @param maximumWeight
+	 *            the estimated number of bytes the cached items may use
+	 * @param maximumCapacity
+	 *            the maximum number of entries, or a negative number for no
+	 *            limit
+	 */
+	public ConcurrentItemCache(long maximumWeight, int maximumCapacity) {
+		super(DEFAULT_INITIAL_CAPACITY, maximumCapacity, true);
+		fSegments = new Segment[SEGMENTS];
+		for (int i = 0; i < SEGMENTS; i++)
+			fSegments[i] = new Segment();
+		setMaximumWeight(maximumWeight);
+	}
+
+	/**
+	 * Returns the estimated number of bytes the cached items may use.
+	 */
+	public long getMaximumWeight() {
+		return fMaximumWeight;
+	}
+
+	/**
+	 * Sets the estimated number of bytes the cached items may use. This also
+	 * resets the collected use frequencies.
+	 */
+	public void setMaximumWeight(long maximumWeight) {
+		if (maximumWeight <= 0)
+			throw new IllegalArgumentException("maximum weight must be positive");
+		fMaximumWeight = maximumWeight;
+		int entries = getMaximumCapacity() > 0 ? getMaximumCapacity()
+				: (int) Math.min(maximumWeight / 256, 1 << 24);
+		fSketch = new FrequencySketch(entries);
+	}
+
+	/**
+	 * Returns the estimated number of bytes the cached items use.
+	 */
+	public long getWeight() {
+		long weight = 0;
+		if (fSegments != null)
+			for (Segment segment : fSegments)
+				weight += segment.weight;
+		return weight;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see edu.mit.jwi.ItemCache#init()
+	 */
+	@Override
+	public void init() {
+		clear();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see edu.mit.jwi.ItemCache#clear()
+	 */
+	@Override
+	public void clear() {
+		// called by the super constructor before the segments exist
+		if (fSegments == null)
+			return;
+		for (Segment segment : fSegments)
+			segment.clear();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see edu.mit.jwi.ItemCache#size()
+	 */
+	@Override
+	public int size() {
+		int size = 0;
+		if (fSegments != null)
+			for (Segment segment : fSegments)
+				size += segment.count;
+		return size;
+	}
+
+	/**
+	 * Returns the number of lookups which found an item.
+	 */
+	public long getHitCount() {
+		long count = 0;
+		for (Segment segment : fSegments)
+			count += segment.hits.sum();
+		return count;
+	}
+
+	/**
+	 * Returns the number of lookups which did not find an item.
+	 */
+	public long getMissCount() {
+		long count = 0;
+		for (Segment segment : fSegments)
+			count += segment.misses.sum();
+		return count;
+	}
+
+	/**
+	 * Returns the fraction of lookups which found an item.
+	 */
+	public double getHitRate() {
+		long hits = getHitCount();
+		long lookups = hits + getMissCount();
+		return lookups == 0 ? 0 : (double) hits / lookups;
+	}
+
+	/**
+	 * Returns the number of entries which were evicted to make room for new
+	 * ones.
+	 */
+	public long getEvictionCount() {
+		long count = 0;
+		for (Segment segment : fSegments)
+			count += segment.evictions.sum();
+		return count;
+	}
+
+	/**
+	 * Returns the number of items which were not admitted because they were
+	 * used less often than the entries they would have replaced.
+	 */
+	public long getRejectionCount() {
+		long count = 0;
+		for (Segment segment : fSegments)
+			count += segment.rejections.sum();
+		return count;
+	}
+
+	/**
+	 * Resets the hit, miss, eviction and rejection counts.
+	 */
+	public void resetStatistics() {
+		for (Segment segment : fSegments) {
+			segment.hits.reset();
+			segment.misses.reset();
+			segment.evictions.reset();
+			segment.rejections.reset();
+		}
+	}
+
+	/**
+	 * Returns at most the specified number of cached items, the most
+	 * frequently used first, as estimated by the frequency sketch. A word may
+	 * be returned more than once, as it is cached under several keys. The
+	 * segments are read without locking, so items added or removed meanwhile
+	 * may or may not be returned.
+	 */
+	public List<Object> getHottestItems(int max) {
+		if (max < 0)
+			throw new IllegalArgumentException("Negative number of items: "
+					+ max);
+		List<Entry> entries = new ArrayList<Entry>();
+		for (Segment segment : fSegments) {
+			AtomicReferenceArray<Entry> t = segment.table;
+			for (int i = 0; i < t.length(); i++) {
+				Entry e = t.get(i);
+				if (e != null && e != REMOVED)
+					entries.add(e);
+			}
+		}
+
+		// sort by descending frequency, packed above the index of the entry
+		FrequencySketch sketch = fSketch;
+		long[] order = new long[entries.size()];
+		for (int i = 0; i < order.length; i++)
+			order[i] = (long) (15 - sketch.frequency(entries.get(i).hash)) << 32
+					| i;
+		Arrays.sort(order);
+
+		int count = Math.min(max, order.length);
+		List<Object> items = new ArrayList<Object>(count);
+		for (int i = 0; i < count; i++)
+			items.add(entries.get((int) order[i]).value);
+		return items;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see edu.mit.jwi.ItemCache#cacheIndexWord(edu.mit.jwi.item.IIndexWord)
+	 */
+	@Override
+	public void cacheIndexWord(IIndexWord item) {
+		IIndexWordID id = item.getID();
+		put(INDEX_WORD | pos(id.getPOS()), id.getLemma(), item);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see edu.mit.jwi.ItemCache#retrieveIndexWord(edu.mit.jwi.item.IIndexWordID)
+	 */
+	@Override
+	public IIndexWord retrieveIndexWord(IIndexWordID id) {
+		return (IIndexWord) get(INDEX_WORD | pos(id.getPOS()), id.getLemma());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see edu.mit.jwi.ItemCache#cacheSynset(edu.mit.jwi.item.ISynset)
+	 */
+	@Override
+	public void cacheSynset(ISynset item) {
+		put(SYNSET | synset(item.getID()), null, item);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see edu.mit.jwi.ItemCache#retrieveSynset(edu.mit.jwi.item.ISynsetID)
+	 */
+	@Override
+	public ISynset retrieveSynset(ISynsetID id) {
+		return (ISynset) get(SYNSET | synset(id), null);
+	}
+
+	/**
+	 * Caches the word under its number, its lemma and its sense key, so it is
+	 * found by any form of word ID.
+	 * 
+	 * @see edu.mit.jwi.ItemCache#cacheWord(edu.mit.jwi.item.IWord)
+	 */
+	@Override
+	public void cacheWord(IWord item) {
+		IWordID id = item.getID();
+		long synset = synset(id.getSynsetID());
+		if (id.getSenseNumber() > 0)
+			put(WORD | synset | id.getSenseNumber(), null, item);
+		if (id.getLemma() != null)
+			put(WORD_BY_LEMMA | synset, id.getLemma(), item);
+		ISenseKey key = item.getSenseKey();
+		if (!key.needsHeadSet())
+			put(WORD_BY_KEY, key.toString(), item);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see edu.mit.jwi.ItemCache#retrieveWord(edu.mit.jwi.item.IWordID)
+	 */
+	@Override
+	public IWord retrieveWord(IWordID id) {
+		long synset = synset(id.getSynsetID());
+		if (id.getSenseNumber() > 0)
+			return (IWord) get(WORD | synset | id.getSenseNumber(), null);
+		return (IWord) get(WORD_BY_LEMMA | synset, id.getLemma());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see edu.mit.jwi.ItemCache#retrieveWord(edu.mit.jwi.item.ISenseKey)
+	 */
+	@Override
+	public IWord retrieveWord(ISenseKey key) {
+		if (key.needsHeadSet())
+			return null;
+		return (IWord) get(WORD_BY_KEY, key.toString());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see edu.mit.jwi.ItemCache#cacheExceptionEntry(edu.mit.jwi.item.IExceptionEntry)
+	 */
+	@Override
+	public void cacheExceptionEntry(IExceptionEntry item) {
+		IExceptionEntryID id = item.getID();
+		put(EXCEPTION_ENTRY | pos(id.getPOS()), id.getSurfaceForm(), item);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see edu.mit.jwi.ItemCache#retrieveExceptionEntry(edu.mit.jwi.item.IExceptionEntryID)
+	 */
+	@Override
+	public IExceptionEntry retrieveExceptionEntry(IExceptionEntryID id) {
+		return (IExceptionEntry) get(EXCEPTION_ENTRY | pos(id.getPOS()),
+				id.getSurfaceForm());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see edu.mit.jwi.ItemCache#cacheSenseEntry(edu.mit.jwi.item.ISenseEntry)
+	 */
+	@Override
+	public void cacheSenseEntry(ISenseEntry entry) {
+		ISenseKey key = entry.getSenseKey();
+		if (!key.needsHeadSet())
+			put(SENSE_ENTRY, key.toString(), entry);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see edu.mit.jwi.ItemCache#retrieveSenseEntry(edu.mit.jwi.item.ISenseKey)
+	 */
+	@Override
+	public ISenseEntry retrieveSenseEntry(ISenseKey key) {
+		if (key.needsHeadSet())
+			return null;
+		return (ISenseEntry) get(SENSE_ENTRY, key.toString());
+	}
+
+	/**
+	 * Returns an estimate of the number of bytes the specified item uses.
+	 * Words share most of their memory with their synset, so they are cheap.
+	 */
+	protected int weigh(Object item) {
+		if (item instanceof ISynset) {
+			ISynset synset = (ISynset) item;
+			return 256 + 2 * synset.getGloss().length() + 160
+					* synset.getWords().size();
+		}
+		if (item instanceof IIndexWord) {
+			IIndexWord word = (IIndexWord) item;
+			return 128 + 2 * word.getLemma().length() + 64
+					* word.getWordIDs().size();
+		}
+		return 96;
+	}
+
+	private Object get(long key, String name) {
+		int hash = hash(key, name);
+		fReadBuffers.get().record(hash);
+		return segmentFor(hash).get(key, name, hash);
+	}
+
+	private void put(long key, String name, Object item) {
+		if (!isCachingEnabled())
+			return;
+		// count the miss which usually precedes the put before admission
+		fReadBuffers.get().drain();
+		int hash = hash(key, name);
+		segmentFor(hash).put(new Entry(key, name, item, hash, weigh(item)));
+	}
+
+	private Segment segmentFor(int hash) {
+		return fSegments[hash >>> (32 - SEGMENT_SHIFT)];
+	}
+
+	private static long pos(POS pos) {
+		return (long) pos.getNumber() << 48;
+	}
+
+	private static long synset(ISynsetID id) {
+		return pos(id.getPOS()) | (long) id.getOffset() << 16;
+	}
+
+	private static int hash(long key, String name) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		if (name != null)
+			h ^= name.hashCode() * 0xC2B2AE3D27D4EB4FL;
+		h ^= h >>> 29;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	private static final class Entry {
+		final long key;
+		final String name;
+		final Object value;
+		final int hash;
+		final int weight;
+
+		Entry(long key, String name, Object value, int hash, int weight) {
+			this.key = key;
+			this.name = name;
+			this.value = value;
+			this.hash = hash;
+			this.weight = weight;
+		}
+
+		boolean matches(long key, String name) {
+			return this.key == key
+					&& (this.name == null ? name == null : this.name.equals(name));
+		}
+	}
+
+	// marks removed slots so the probe sequences of other keys stay intact
+	private static final Entry REMOVED = new Entry(0, null, null, 0, 0);
+
+	/**
+	 * An open addressed hash table. Readers never lock; writers lock the
+	 * segment and publish a new table when it has to grow, so a concurrent
+	 * reader at worst misses an item which has just been added.
+	 */
+	private final class Segment {
+		final LongAdder hits = new LongAdder();
+		final LongAdder misses = new LongAdder();
+		final LongAdder evictions = new LongAdder();
+		final LongAdder rejections = new LongAdder();
+
+		volatile AtomicReferenceArray<Entry> table = new AtomicReferenceArray<Entry>(16);
+		volatile int count;
+		volatile long weight;
+		int removed;
+		int seed = 0x2545F491;
+
+		Object get(long key, String name, int hash) {
+			AtomicReferenceArray<Entry> t = table;
+			int mask = t.length() - 1;
+			for (int i = hash & mask, n = 0; n <= mask; i = (i + 1) & mask, n++) {
+				Entry e = t.get(i);
+				if (e == null)
+					break;
+				if (e.hash == hash && e.matches(key, name)) {
+					hits.increment();
+					return e.value;
+				}
+			}
+			misses.increment();
+			return null;
+		}
+
+		synchronized void put(Entry entry) {
+			AtomicReferenceArray<Entry> t = table;
+			int index = find(t, entry);
+			if (index >= 0) {
+				weight += entry.weight - t.get(index).weight;
+				t.set(index, entry);
+				return;
+			}
+
+			long maxWeight = fMaximumWeight / SEGMENTS;
+			int maxCapacity = getMaximumCapacity();
+			int maxCount = maxCapacity > 0 ? Math.max(1, maxCapacity / SEGMENTS)
+					: Integer.MAX_VALUE;
+			if (entry.weight > maxWeight)
+				return;
+			FrequencySketch sketch = fSketch;
+			while (count > 0
+					&& (weight + entry.weight > maxWeight || count >= maxCount)) {
+				int victim = sample(t);
+				Entry e = t.get(victim);
+				if (sketch.frequency(entry.hash) <= sketch.frequency(e.hash)) {
+					rejections.increment();
+					return;
+				}
+				t.set(victim, REMOVED);
+				count--;
+				removed++;
+				weight -= e.weight;
+				evictions.increment();
+			}
+
+			if ((count + removed + 1) * 4 > t.length() * 3) {
+				t = rehash(t);
+				table = t;
+			}
+			int mask = t.length() - 1;
+			int i = entry.hash & mask;
+			while (t.get(i) != null && t.get(i) != REMOVED)
+				i = (i + 1) & mask;
+			if (t.get(i) == REMOVED)
+				removed--;
+			t.set(i, entry);
+			count++;
+			weight += entry.weight;
+		}
+
+		synchronized void clear() {
+			table = new AtomicReferenceArray<Entry>(16);
+			count = 0;
+			removed = 0;
+			weight = 0;
+		}
+
+		private int find(AtomicReferenceArray<Entry> t, Entry entry) {
+			int mask = t.length() - 1;
+			for (int i = entry.hash & mask, n = 0; n <= mask; i = (i + 1) & mask, n++) {
+				Entry e = t.get(i);
+				if (e == null)
+					break;
+				if (e.hash == entry.hash && e.matches(entry.key, entry.name))
+					return i;
+			}
+			return -1;
+		}
+
+		/**
+		 * Returns the slot of the least frequently used entry among a few
+		 * consecutive entries from a random position.
+		 */
+		private int sample(AtomicReferenceArray<Entry> t) {
+			seed ^= seed << 13;
+			seed ^= seed >>> 17;
+			seed ^= seed << 5;
+			int mask = t.length() - 1;
+			FrequencySketch sketch = fSketch;
+			int victim = -1, victimFrequency = Integer.MAX_VALUE;
+			for (int i = seed & mask, n = 0, found = 0; n <= mask
+					&& found < SAMPLE_SIZE; i = (i + 1) & mask, n++) {
+				Entry e = t.get(i);
+				if (e == null || e == REMOVED)
+					continue;
+				found++;
+				int frequency = sketch.frequency(e.hash);
+				if (frequency < victimFrequency) {
+					victim = i;
+					victimFrequency = frequency;
+				}
+			}
+			return victim;
+		}
+
+		private AtomicReferenceArray<Entry> rehash(AtomicReferenceArray<Entry> t) {
+			int capacity = 16;
+			while (capacity * 3 < (count + 1) * 8)
+				capacity <<= 1;
+			AtomicReferenceArray<Entry> result = new AtomicReferenceArray<Entry>(capacity);
+			int mask = capacity - 1;
+			for (int i = 0; i < t.length(); i++) {
+				Entry e = t.get(i);
+				if (e == null || e == REMOVED)
+					continue;
+				int j = e.hash & mask;
+				while (result.get(j) != null)
+					j = (j + 1) & mask;
+				result.set(j, e);
+			}
+			removed = 0;
+			return result;
+		}
+	}
+
+	/**
+	 * The hashes of the items a thread looked up since its uses were last
+	 * added to the sketch. Only the owning thread touches it.
+	 */
+	private final class ReadBuffer {
+		private final int[] fHashes = new int[READ_BUFFER_SIZE];
+		private int fCount;
+
+		void record(int hash) {
+			fHashes[fCount++] = hash;
+			if (fCount == READ_BUFFER_SIZE)
+				drain();
+		}
+
+		void drain() {
+			if (fCount == 0)
+				return;
+			FrequencySketch sketch = fSketch;
+			synchronized (sketch) {
+				for (int i = 0; i < fCount; i++)
+					sketch.increment(fHashes[i]);
+			}
+			fCount = 0;
+		}
+	}
+
+	/**
+	 * A count-min sketch with four rows of 4-bit counters packed into longs.
+	 * It is only incremented under its lock, by the threads draining their
+	 * read buffers. Estimates are read without locking, which at worst sees
+	 * a count that is about to change.
+	 */
+	private static final class FrequencySketch {
+		private static final long[] SEEDS = { 0xC3A5C85C97CB3127L,
+				0xB492B66FBE98F273L, 0x9AE16A3B2F90404FL, 0xCBF29CE484222325L };
+
+		private final long[] fTable;
+		private final int fMask;
+		private final int fSampleSize;
+		private int fAdditions;
+
+		FrequencySketch(int entries) {
+			int length = Integer.highestOneBit(Math.max(entries, 256) - 1) << 1;
+			fTable = new long[length];
+			fMask = length - 1;
+			fSampleSize = 10 * length;
+		}
+
+		int frequency(int hash) {
+			int frequency = Integer.MAX_VALUE;
+			for (int i = 0; i < 4; i++) {
+				long h = (hash + SEEDS[i]) * SEEDS[i];
+				int index = (int) (h >>> 32) & fMask;
+				int shift = (int) (h >>> 28) & 0x3C;
+				frequency = Math.min(frequency, (int) (fTable[index] >>> shift) & 0xF);
+			}
+			return frequency;
+		}
+
+		void increment(int hash) {
+			boolean added = false;
+			for (int i = 0; i < 4; i++) {
+				long h = (hash + SEEDS[i]) * SEEDS[i];
+				int index = (int) (h >>> 32) & fMask;
+				int shift = (int) (h >>> 28) & 0x3C;
+				long value = fTable[index];
+				if (((value >>> shift) & 0xF) < 15) {
+					fTable[index] = value + (1L << shift);
+					added = true;
+				}
+			}
+			if (added && ++fAdditions >= fSampleSize)
+				reset();
+		}
+
+		/**
+		 * Halves all counters.
+		 */
+		private void reset() {
+			for (int i = 0; i < fTable.length; i++)
+				fTable[i] = (fTable[i] >>> 1) & 0x7777777777777777L;
+			fAdditions /= 2;
+		}
+	}
+}
@@ -0,0 +1,192 @@
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import edu.mit.jwi.data.IContentType;
+
+/**
+ * Default implementation of the {@code IDataSourceMetrics} interface. It
+ * keeps counters and a latency histogram per content type, using atomic
+ * variables only. The histogram has one bucket per power of two nanoseconds,
+ * so percentiles are accurate within a factor of two.
+ * 
+ * @author Markus HAENSE
+ */
+public class DataSourceMetrics implements IDataSourceMetrics {
+
+	private static final int BUCKETS = 64;
+
+	private final ConcurrentMap<IContentType<?>, Counters> fCounters = new ConcurrentHashMap<IContentType<?>, Counters>();
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see IDataSourceMetrics#recordLookup(edu.mit.jwi.data.IContentType,
+	 * boolean, int, int, long)
+	 */
+	public void recordLookup(IContentType<?> type, boolean hit, int probes,
+			int bytesScanned, long nanos) {
+		Counters counters = getCounters(type);
+		(hit ? counters.hits : counters.misses).incrementAndGet();
+		counters.probes.addAndGet(probes);
+		counters.bytesScanned.addAndGet(bytesScanned);
+		counters.latencies.incrementAndGet(bucket(nanos));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see IDataSourceMetrics#recordIteration(edu.mit.jwi.data.IContentType,
+	 * int)
+	 */
+	public void recordIteration(IContentType<?> type, int lines) {
+		getCounters(type).linesIterated.addAndGet(lines);
+	}
+
+	/**
+	 * Returns a copy of the current measurements of each content type.
+	 */
+	public Map<IContentType<?>, Snapshot> getSnapshot() {
+		Map<IContentType<?>, Snapshot> snapshot = new HashMap<IContentType<?>, Snapshot>();
+		for (Map.Entry<IContentType<?>, Counters> e : fCounters.entrySet()) {
+			snapshot.put(e.getKey(), new Snapshot(e.getKey(), e.getValue()));
+		}
+		return Collections.unmodifiableMap(snapshot);
+	}
+
+	/**
+	 * Resets all measurements.
+	 */
+	public void reset() {
+		fCounters.clear();
+	}
+
+	private Counters getCounters(IContentType<?> type) {
+		Counters counters = fCounters.get(type);
+		if (counters == null) {
+			Counters created = new Counters();
+			counters = fCounters.putIfAbsent(type, created);
+			if (counters == null)
+				counters = created;
+		}
+		return counters;
+	}
+
+	/**
+	 * Returns the index of the bucket for the specified duration, i.e. the
+	 * number of bits needed to represent it.
+	 */
+	private static int bucket(long nanos) {
+		return nanos <= 0 ? 0 : BUCKETS - Long.numberOfLeadingZeros(nanos);
+	}
+
+	private static class Counters {
+		final AtomicLong hits = new AtomicLong();
+		final AtomicLong misses = new AtomicLong();
+		final AtomicLong probes = new AtomicLong();
+		final AtomicLong bytesScanned = new AtomicLong();
+		final AtomicLong linesIterated = new AtomicLong();
+		final AtomicLongArray latencies = new AtomicLongArray(BUCKETS + 1);
+	}
+
+	/**
+	 * Immutable copy of the measurements of one content type.
+	 */
+	public static class Snapshot {
+		private final IContentType<?> fType;
+		private final long fHits;
+		private final long fMisses;
+		private final long fProbes;
+		private final long fBytesScanned;
+		private final long fLinesIterated;
+		private final long[] fLatencies;
+
+		protected Snapshot(IContentType<?> type, Counters counters) {
+			fType = type;
+			fHits = counters.hits.get();
+			fMisses = counters.misses.get();
+			fProbes = counters.probes.get();
+			fBytesScanned = counters.bytesScanned.get();
+			fLinesIterated = counters.linesIterated.get();
+			fLatencies = new long[counters.latencies.length()];
+			for (int i = 0; i < fLatencies.length; i++)
+				fLatencies[i] = counters.latencies.get(i);
+		}
+
+		public IContentType<?> getContentType() {
+			return fType;
+		}
+
+		public long getLookups() {
+			return fHits + fMisses;
+		}
+
+		public long getHits() {
+			return fHits;
+		}
+
+		public long getMisses() {
+			return fMisses;
+		}
+
+		public long getProbes() {
+			return fProbes;
+		}
+
+		public long getBytesScanned() {
+			return fBytesScanned;
+		}
+
+		public long getLinesIterated() {
+			return fLinesIterated;
+		}
+
+		/**
+		 * Returns the average number of probes per lookup.
+		 */
+		public double getProbesPerLookup() {
+			long lookups = getLookups();
+			return lookups == 0 ? 0 : (double) fProbes / lookups;
+		}
+
+		/**
+		 * Returns an upper bound of the latency, in nanoseconds, below which
+		 * the specified fraction of the lookups completed.
+		 */
+		public long getLatencyPercentile(double fraction) {
+			long lookups = 0;
+			for (long count : fLatencies)
+				lookups += count;
+			if (lookups == 0)
+				return 0;
+
+			long rank = (long) Math.ceil(fraction * lookups);
+			long seen = 0;
+			for (int i = 0; i < fLatencies.length; i++) {
+				seen += fLatencies[i];
+				if (seen >= rank)
+					return i == 0 ? 0 : (1L << i) - 1;
+			}
+			return Long.MAX_VALUE;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.lang.Object#toString()
+		 */
+		public String toString() {
+			return fType + ": " + getLookups() + " lookups, " + fHits
+					+ " hits, " + fMisses + " misses, "
+					+ String.format("%.1f", getProbesPerLookup())
+					+ " probes/lookup, " + fBytesScanned + " bytes scanned, "
+					+ fLinesIterated + " lines iterated, p50 <= "
+					+ getLatencyPercentile(0.5) + " ns, p99 <= "
+					+ getLatencyPercentile(0.99) + " ns";
+		}
+	}
+}
\ No newline at end of file
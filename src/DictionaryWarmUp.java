@@ -0,0 +1,306 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import edu.mit.jwi.ItemCache;
+import edu.mit.jwi.data.ContentType;
+import edu.mit.jwi.data.IContentType;
+import edu.mit.jwi.data.IDataProvider;
+import edu.mit.jwi.data.IDataSource;
+import edu.mit.jwi.item.IIndexWord;
+import edu.mit.jwi.item.IWordID;
+import edu.mit.jwi.item.POS;
+
+/**
+ * Warms up a {@link JarDictionary} after it has been opened, so that the
+ * first requests are not slowed down by page faults, interpreted code and an
+ * empty cache. The warm-up runs in the background and consists of four
+ * optional phases:
+ * <ol>
+ * <li>Every page of the buffers of the data sources is read once, which
+ * loads the lazily loaded sources and faults memory-mapped files in.</li>
+ * <li>A mix of lookups runs through each data source, so that the lookup
+ * code is compiled. The keys are recorded ones if set for the content type,
+ * and otherwise keys spread evenly over the file.</li>
+ * <li>The items whose keys were saved in a {@link HotKeySnapshot} when the
+ * dictionary was last closed are put into the item cache, hottest first.</li>
+ * <li>The index words of the most frequent lemmas of each part of speech,
+ * by tag sense count, are put into the item cache with their synsets.</li>
+ * </ol>
+ * The options take effect when the warm-up is next started. Statistics of
+ * the data source metrics and of a {@link ConcurrentItemCache} are reset
+ * afterwards, so they only count real traffic.
+ * 
+ * @author Markus HAENSE
+ */
+public class DictionaryWarmUp {
+
+	public static final int DEFAULT_LOOKUPS = 20000;
+	public static final int DEFAULT_PREFILL_LEMMAS = 2000;
+
+	private boolean fTouchPages = true;
+	private int fLookups = DEFAULT_LOOKUPS;
+	private int fPrefillLemmas = DEFAULT_PREFILL_LEMMAS;
+	private Executor fExecutor = null;
+	private HotKeySnapshot fHotKeys = null;
+	private final Map<IContentType<?>, List<String>> fRecordedKeys = new HashMap<IContentType<?>, List<String>>();
+
+	/** Consumes the bytes read, so that the reads cannot be eliminated */
+	private static volatile int sink;
+
+	/**
+	 * Returns <code>true</code> if every page of the buffers is touched.
+	 */
+	public boolean isTouchPages() {
+		return fTouchPages;
+	}
+
+	/**
+	 * Sets whether every page of the buffers of the data sources is touched.
+	 */
+	public void setTouchPages(boolean touchPages) {
+		fTouchPages = touchPages;
+	}
+
+	/**
+	 * Returns the number of lookups run through each data source.
+	 */
+	public int getLookups() {
+		return fLookups;
+	}
+
+	/**
+	 * Sets the number of lookups run through each data source. If 0, the
+	 * lookup phase is skipped.
+	 */
+	public void setLookups(int lookups) {
+		if (lookups < 0)
+			throw new IllegalArgumentException("Negative number of lookups: "
+					+ lookups);
+		fLookups = lookups;
+	}
+
+	/**
+	 * Returns the number of the most frequent lemmas of each part of speech
+	 * that are put into the cache.
+	 */
+	public int getPrefillLemmas() {
+		return fPrefillLemmas;
+	}
+
+	/**
+	 * Sets the number of the most frequent lemmas of each part of speech that
+	 * are put into the cache. If 0, the cache is not prefilled.
+	 */
+	public void setPrefillLemmas(int prefillLemmas) {
+		if (prefillLemmas < 0)
+			throw new IllegalArgumentException("Negative number of lemmas: "
+					+ prefillLemmas);
+		fPrefillLemmas = prefillLemmas;
+	}
+
+	/**
+	 * Returns the executor the warm-up runs on, or <code>null</code> if it
+	 * runs on a thread of its own.
+	 */
+	public Executor getExecutor() {
+		return fExecutor;
+	}
+
+	/**
+	 * Sets the executor the warm-up runs on. If <code>null</code>, it runs on
+	 * a new daemon thread.
+	 */
+	public void setExecutor(Executor executor) {
+		fExecutor = executor;
+	}
+
+	/**
+	 * Returns the snapshot of the hot keys of the cache, or <code>null</code>
+	 * if there is none.
+	 */
+	public HotKeySnapshot getHotKeySnapshot() {
+		return fHotKeys;
+	}
+
+	/**
+	 * Sets the snapshot of the hot keys of the cache, which is reloaded by the
+	 * warm-up and saved when the dictionary is closed. If <code>null</code>,
+	 * the cache starts empty.
+	 */
+	public void setHotKeySnapshot(HotKeySnapshot hotKeys) {
+		fHotKeys = hotKeys;
+	}
+
+	/**
+	 * Sets the keys of recorded lookups to replay on the data source of the
+	 * specified content type, e.g. the lemmas requested from a production
+	 * node, instead of keys spread over the file. They are replayed in
+	 * order, repeatedly if there are fewer than {@link #getLookups()}. If
+	 * <code>null</code>, the recorded keys of the type are removed.
+	 */
+	public void setRecordedKeys(IContentType<?> type, Collection<String> keys) {
+		synchronized (fRecordedKeys) {
+			if (keys == null)
+				fRecordedKeys.remove(type);
+			else
+				fRecordedKeys.put(type, new ArrayList<String>(keys));
+		}
+	}
+
+	/**
+	 * Starts to warm up the dictionary in the background. The returned
+	 * future completes when the warm-up is done, or exceptionally if it
+	 * fails. Cancelling the future stops the warm-up between two steps.
+	 */
+	public CompletableFuture<Void> start(final JarDictionary dict) {
+		final CompletableFuture<Void> future = new CompletableFuture<Void>();
+		Runnable task = new Runnable() {
+			public void run() {
+				try {
+					warmUp(dict, future);
+					future.complete(null);
+				} catch (Throwable t) {
+					future.completeExceptionally(t);
+				}
+			}
+		};
+
+		Executor executor = fExecutor;
+		if (executor != null) {
+			executor.execute(task);
+		} else {
+			Thread thread = new Thread(task, "JarDictionary warm-up");
+			thread.setDaemon(true);
+			thread.start();
+		}
+		return future;
+	}
+
+	/**
+	 * Runs all phases of the warm-up in the calling thread, checking between
+	 * the steps whether the future has been cancelled.
+	 */
+	protected void warmUp(JarDictionary dict, CompletableFuture<?> future) {
+		IDataProvider provider = dict.getDataProvider();
+		List<IDataSource<?>> sources = new ArrayList<IDataSource<?>>(provider
+				.getSources());
+
+		if (fTouchPages) {
+			for (IDataSource<?> source : sources) {
+				if (future.isDone())
+					return;
+				if (source instanceof WordnetJarFile<?>)
+					sink += ((WordnetJarFile<?>) source).touchPages();
+			}
+		}
+
+		if (fLookups > 0) {
+			for (IDataSource<?> source : sources) {
+				if (future.isDone())
+					return;
+				runLookups(source);
+			}
+		}
+
+		HotKeySnapshot hotKeys = fHotKeys;
+		if (hotKeys != null) {
+			if (future.isDone())
+				return;
+			try {
+				hotKeys.reload(dict, future);
+			} catch (IOException e) {
+				// a broken snapshot is replaced when the dictionary is closed
+				System.err.println(System.currentTimeMillis()
+						+ " - Error reloading the hot keys from "
+						+ hotKeys.getFile() + ": " + e);
+			}
+		}
+
+		if (fPrefillLemmas > 0) {
+			for (POS pos : POS.values()) {
+				if (future.isDone())
+					return;
+				if (provider.getSource(ContentType.getIndexContentType(pos)) != null)
+					prefill(dict, pos);
+			}
+		}
+
+		if (provider instanceof JarFileProvider) {
+			IDataSourceMetrics metrics = ((JarFileProvider) provider)
+					.getMetrics();
+			if (metrics instanceof DataSourceMetrics)
+				((DataSourceMetrics) metrics).reset();
+		}
+		ItemCache cache = dict.getCache();
+		if (cache instanceof ConcurrentItemCache)
+			((ConcurrentItemCache) cache).resetStatistics();
+	}
+
+	/**
+	 * Runs the configured number of lookups through the data source, with
+	 * the recorded keys of its content type or with keys spread over it.
+	 */
+	protected void runLookups(IDataSource<?> source) {
+		List<String> keys;
+		synchronized (fRecordedKeys) {
+			keys = fRecordedKeys.get(source.getContentType());
+		}
+		if (keys == null)
+			keys = sampleKeys(source, Math.min(fLookups, 1024));
+		if (keys.isEmpty())
+			return;
+
+		int sum = 0;
+		for (int i = 0; i < fLookups; i++) {
+			String line = source.getLine(keys.get(i % keys.size()));
+			if (line != null)
+				sum += line.length();
+		}
+		sink += sum;
+	}
+
+	/**
+	 * Returns the keys of at most the specified number of lines, spread
+	 * evenly over the data source.
+	 */
+	protected static List<String> sampleKeys(IDataSource<?> source, int count) {
+		int lines = 0;
+		for (Iterator<String> i = source.iterator(); i.hasNext(); i.next())
+			lines++;
+
+		List<String> keys = new ArrayList<String>(count);
+		int step = Math.max(1, lines / Math.max(1, count));
+		int index = 0;
+		for (Iterator<String> i = source.iterator(); i.hasNext()
+				&& keys.size() < count; index++) {
+			String line = i.next();
+			if (index % step != 0)
+				continue;
+			int end = line.indexOf(' ');
+			keys.add(end == -1 ? line : line.substring(0, end));
+		}
+		return keys;
+	}
+
+	/**
+	 * Puts the index words of the most frequent lemmas of the part of speech
+	 * into the cache, together with their synsets.
+	 */
+	protected void prefill(JarDictionary dict, POS pos) {
+		List<String> lemmas = dict.getLemmaTrie(pos).completeByFrequency("",
+				fPrefillLemmas);
+		for (IIndexWord word : dict.getIndexWords(lemmas, pos)) {
+			if (word == null)
+				continue;
+			for (IWordID id : word.getWordIDs())
+				dict.getSynset(id.getSynsetID());
+		}
+	}
+}
\ No newline at end of file
@@ -20,23 +20,28 @@ public class DirectAccessWordnetJarFile<T> extends WordnetJarFile<T> {
 		super(is, name, contentType);
 	}
 
+	public DirectAccessWordnetJarFile(ByteBuffer buffer, String name,
+			IContentType<T> contentType) {
+		super(buffer, name, contentType);
+	}
+
 	/**
 	 * (non-Javadoc)
 	 * 
-	 * @see edu.mit.wordnet.core.file.IDictionaryFile#getLine(java.lang.String)
+	 * @see WordnetJarFile#getLineView(java.lang.String, LineView)
 	 */
-	public String getLine(String key) {
-		synchronized (fBuffer) {
-			try {
-				Integer byteOffset = Integer.parseInt(key);
-				if (fBuffer.limit() <= byteOffset)
-					return null;
-				fBuffer.position(byteOffset);
-				String line = getLine(fBuffer);
-				return line.startsWith(key) ? line : null;
-			} catch (NumberFormatException e) {
-				return null;
-			}
+	public boolean getLineView(String key, LineView line) {
+		long start = startLookup();
+		try {
+			int byteOffset = Integer.parseInt(key);
+			if (byteOffset < 0 || fBuffer.limit() <= byteOffset
+					|| !ByteLineComparator.startsWith(fBuffer, byteOffset, key))
+				return endLookup(start, null, 1, 0);
+			// only absolute reads, so concurrent readers do not share a cursor
+			return endLookup(start, line.set(fBuffer, byteOffset, getLineEnd(
+					fBuffer, byteOffset)), 1, 0);
+		} catch (NumberFormatException e) {
+			return endLookup(start, null, 0, 0);
 		}
 	}
 
@@ -63,9 +68,6 @@ public class DirectAccessWordnetJarFile<T> extends WordnetJarFile<T> {
 	 */
 	public class DirectLineIterator extends LineIterator {
 
-		ByteBuffer fMyBuffer;
-		String previous, next;
-
 		public DirectLineIterator(ByteBuffer file) {
 			this(file, null);
 		}
@@ -75,16 +77,14 @@ public class DirectAccessWordnetJarFile<T> extends WordnetJarFile<T> {
 		}
 
 		protected void findFirstLine(String key) {
-			synchronized (fMyBuffer) {
-				try {
-					Integer byteOffset = Integer.parseInt(key);
-					if (fBuffer.limit() <= byteOffset)
-						return;
-					fMyBuffer.position(byteOffset);
-					next = getLine(fMyBuffer);
-				} catch (NumberFormatException e) {
-					// Ignore
-				}
+			try {
+				int byteOffset = Integer.parseInt(key);
+				if (byteOffset < 0 || fMyBuffer.limit() <= byteOffset)
+					return;
+				fMyBuffer.position(byteOffset);
+				next = getLine(fMyBuffer);
+			} catch (NumberFormatException e) {
+				// Ignore
 			}
 		}
 	}
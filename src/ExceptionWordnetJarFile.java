@@ -0,0 +1,296 @@
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import edu.mit.jwi.data.DataType;
+import edu.mit.jwi.data.IContentType;
+
+/**
+ * Implementation of the {@code IDataSource} interface for the Wordnet
+ * exception files, which answers lookups of inflected forms in constant time.
+ * At load time it decodes the surface form and the base forms of every entry
+ * into one shared character array, and builds an open-addressed hash table
+ * from the surface forms to the entries, so that there is no object per
+ * entry. Stemmers can look up an entry with {@link #getEntry(CharSequence)}
+ * and read its base forms without allocating; {@link #getLine(String)} still
+ * returns the line for the dictionary. Iteration uses the sorted file through
+ * the superclass.
+ * 
+ * @author Markus HAENSE
+ */
+public class ExceptionWordnetJarFile<T> extends BinarySearchWordnetJarFile<T> {
+
+	private static final char SPACE = ' ';
+
+	/** The characters of all forms of all entries, in file order */
+	private final char[] fChars;
+
+	/** Start of each form in {@link #fChars}, followed by the total length */
+	private final int[] fFormStarts;
+
+	/**
+	 * Index of the surface form of each entry in {@link #fFormStarts},
+	 * followed by the number of forms. The base forms of an entry are the
+	 * forms up to the surface form of the next one.
+	 */
+	private final int[] fEntryForms;
+
+	/** Index of the entry of each surface form */
+	private final OpenHashTable fTable;
+
+	/** Compares a key with the surface form of the entry at a value */
+	private final OpenHashTable.Matcher<CharSequence> fMatcher = new OpenHashTable.Matcher<CharSequence>() {
+		boolean matches(CharSequence key, int value) {
+			int form = fEntryForms[value];
+			int start = fFormStarts[form];
+			return fFormStarts[form + 1] - start == key.length()
+					&& regionMatches(key, fChars, start, key.length());
+		}
+	};
+
+	public ExceptionWordnetJarFile(ByteBuffer buffer, String name,
+			IContentType<T> contentType) {
+		super(buffer, name, contentType, true);
+		if (contentType.getDataType() != DataType.EXCEPTION)
+			throw new IllegalArgumentException(
+					"Exception maps are only supported for exception files");
+
+		// first pass: count the characters and forms
+		ByteBuffer buf = fBuffer;
+		int chars = 0;
+		int forms = 0;
+		for (int line : fLines) {
+			int end = getLineEnd(buf, line);
+			for (int i = line; i < end; i++) {
+				if (buf.get(i) == SPACE)
+					continue;
+				if (i == line || buf.get(i - 1) == SPACE)
+					forms++;
+				chars++;
+			}
+		}
+
+		// second pass: decode the forms
+		fChars = new char[chars];
+		fFormStarts = new int[forms + 1];
+		fEntryForms = new int[fLines.length + 1];
+		chars = 0;
+		forms = 0;
+		for (int entry = 0; entry < fLines.length; entry++) {
+			int line = fLines[entry];
+			int end = getLineEnd(buf, line);
+			fEntryForms[entry] = forms;
+			for (int i = line; i < end; i++) {
+				char c = (char) buf.get(i);
+				if (c == SPACE)
+					continue;
+				if (i == line || buf.get(i - 1) == SPACE)
+					fFormStarts[forms++] = chars;
+				fChars[chars++] = c;
+			}
+		}
+		fFormStarts[forms] = chars;
+		fEntryForms[fLines.length] = forms;
+
+		// on duplicate surface forms, the first entry wins
+		fTable = new OpenHashTable(fLines.length);
+		for (int entry = 0; entry < fLines.length; entry++) {
+			int form = fEntryForms[entry];
+			if (form == fEntryForms[entry + 1])
+				continue;
+			int start = fFormStarts[form];
+			int length = fFormStarts[form + 1] - start;
+			fTable.add(hash(fChars, start, length), CharBuffer.wrap(fChars,
+					start, length), fMatcher, entry);
+		}
+	}
+
+	/**
+	 * (non-Javadoc)
+	 * 
+	 * @see BinarySearchWordnetJarFile#getLineView(java.lang.String, LineView)
+	 */
+	public boolean getLineView(String key, LineView view) {
+		if (fDetector != null && fDetector.isCommentLine(key))
+			return super.getLineView(key, view);
+
+		long start = startLookup();
+		int[] probes = fMetrics == null ? null : new int[1];
+		int entry = findEntry(key, probes);
+		int count = probes == null ? 0 : probes[0];
+		if (entry < 0)
+			return endLookup(start, null, count, 0);
+		int line = fLines[entry];
+		return endLookup(start, view.set(fBuffer, line, getLineEnd(fBuffer,
+				line)), count, 0);
+	}
+
+	/**
+	 * Hashed lookups gain nothing from sorting the keys, so each distinct key
+	 * is looked up on its own.
+	 * 
+	 * @see BinarySearchWordnetJarFile#getLines(java.util.Collection)
+	 */
+	@Override
+	public List<String> getLines(Collection<String> keys) {
+		return getLinesByKey(keys);
+	}
+
+	/**
+	 * Returns the number of entries in the file.
+	 */
+	public int getEntryCount() {
+		return fLines.length;
+	}
+
+	/**
+	 * Returns the index of the entry for the specified surface form, or -1 if
+	 * there is none. Like the line comparator of the exception files, only
+	 * the characters up to the first space are compared, and case matters.
+	 * Nothing is allocated.
+	 */
+	public int getEntry(CharSequence surfaceForm) {
+		return findEntry(surfaceForm, null);
+	}
+
+	/**
+	 * Returns the surface form of the specified entry.
+	 */
+	public String getSurfaceForm(int entry) {
+		return getForm(fEntryForms[entry]);
+	}
+
+	/**
+	 * Returns the number of base forms of the specified entry.
+	 */
+	public int getBaseFormCount(int entry) {
+		return Math.max(fEntryForms[entry + 1] - fEntryForms[entry] - 1, 0);
+	}
+
+	/**
+	 * Returns the length of a base form of the specified entry.
+	 */
+	public int getBaseFormLength(int entry, int index) {
+		int form = getBaseFormIndex(entry, index);
+		return fFormStarts[form + 1] - fFormStarts[form];
+	}
+
+	/**
+	 * Copies the characters of a base form of the specified entry into the
+	 * array, which must have room for {@link #getBaseFormLength(int, int)}
+	 * characters from the offset on, and returns their number.
+	 */
+	public int getBaseForm(int entry, int index, char[] dest, int offset) {
+		int form = getBaseFormIndex(entry, index);
+		int start = fFormStarts[form];
+		int length = fFormStarts[form + 1] - start;
+		System.arraycopy(fChars, start, dest, offset, length);
+		return length;
+	}
+
+	/**
+	 * Returns a base form of the specified entry.
+	 */
+	public String getBaseForm(int entry, int index) {
+		return getForm(getBaseFormIndex(entry, index));
+	}
+
+	/**
+	 * Returns whether the specified form is one of the base forms of the
+	 * entry. Nothing is allocated.
+	 */
+	public boolean hasBaseForm(int entry, CharSequence baseForm) {
+		for (int form = fEntryForms[entry] + 1; form < fEntryForms[entry + 1]; form++) {
+			int start = fFormStarts[form];
+			int length = fFormStarts[form + 1] - start;
+			if (length == baseForm.length()
+					&& regionMatches(baseForm, fChars, start, length))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the base forms for the specified surface form, which are empty
+	 * if the file has no entry for it.
+	 */
+	public List<String> getBaseForms(CharSequence surfaceForm) {
+		int entry = getEntry(surfaceForm);
+		if (entry < 0)
+			return Collections.emptyList();
+		int count = getBaseFormCount(entry);
+		List<String> forms = new ArrayList<String>(count);
+		for (int i = 0; i < count; i++)
+			forms.add(getBaseForm(entry, i));
+		return forms;
+	}
+
+	/**
+	 * Returns the number of characters held for all forms.
+	 */
+	public int getCharCount() {
+		return fChars.length;
+	}
+
+	private int getBaseFormIndex(int entry, int index) {
+		if (index < 0 || index >= getBaseFormCount(entry))
+			throw new IndexOutOfBoundsException("Base form " + index
+					+ " of entry " + entry);
+		return fEntryForms[entry] + 1 + index;
+	}
+
+	private String getForm(int form) {
+		int start = fFormStarts[form];
+		return new String(fChars, start, fFormStarts[form + 1] - start);
+	}
+
+	/**
+	 * Returns the entry for the key field of the specified key, or -1, and
+	 * adds the number of probed slots to the holder if there is one.
+	 */
+	private int findEntry(CharSequence key, int[] probes) {
+		int length = key.length();
+		for (int i = 0; i < length; i++) {
+			if (key.charAt(i) == SPACE) {
+				length = i;
+				break;
+			}
+		}
+		int hash = hash(key, length);
+		if (length < key.length())
+			key = key.subSequence(0, length);
+		return fTable.find(hash, key, fMatcher, probes);
+	}
+
+	private static boolean regionMatches(CharSequence cs, char[] chars,
+			int start, int length) {
+		for (int i = 0; i < length; i++)
+			if (cs.charAt(i) != chars[start + i])
+				return false;
+		return true;
+	}
+
+	/**
+	 * Hashes the specified number of characters of the key.
+	 */
+	protected static int hash(CharSequence key, int length) {
+		int hash = 0;
+		for (int i = 0; i < length; i++)
+			hash = 31 * hash + key.charAt(i);
+		return OpenHashTable.mix(hash);
+	}
+
+	/**
+	 * Hashes the characters of a form, consistently with
+	 * {@link #hash(CharSequence, int)}.
+	 */
+	protected static int hash(char[] chars, int start, int length) {
+		int hash = 0;
+		for (int i = 0; i < length; i++)
+			hash = 31 * hash + chars[start + i];
+		return OpenHashTable.mix(hash);
+	}
+}
\ No newline at end of file
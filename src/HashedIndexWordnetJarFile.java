@@ -0,0 +1,135 @@
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.List;
+
+import edu.mit.jwi.data.IContentType;
+import edu.mit.jwi.data.compare.IndexLineComparator;
+
+/**
+ * Implementation of the {@code IDataSource} interface for the Wordnet index
+ * files which answers exact lemma lookups in constant time. At load time it
+ * builds an open-addressed hash table from the lower-cased lemma of each line
+ * to the line's start offset, stored in two primitive arrays. Iteration, also
+ * from a key, still uses the sorted file through the binary search of the
+ * superclass.
+ * 
+ * @author Markus HAENSE
+ */
+public class HashedIndexWordnetJarFile<T> extends BinarySearchWordnetJarFile<T> {
+
+	private static final char SPACE = ' ';
+
+	/** Start offset of the line of each lemma */
+	private final OpenHashTable fTable;
+
+	/** Compares the key field of a key with the lemma of the line at a value */
+	private final OpenHashTable.Matcher<String> fMatcher = new OpenHashTable.Matcher<String>() {
+		boolean matches(String key, int value) {
+			return fKeyComparator.compare(fBuffer, value, key) == 0;
+		}
+	};
+
+	/** Compares the lower-cased key fields of the lines at two values */
+	private final OpenHashTable.ValueMatcher fLineMatcher = new OpenHashTable.ValueMatcher() {
+		boolean matches(int value, int other) {
+			return keyEquals(fBuffer, value, other);
+		}
+	};
+
+	public HashedIndexWordnetJarFile(ByteBuffer buffer, String name,
+			IContentType<T> contentType) {
+		super(buffer, name, contentType, true);
+		if (!(getContentType().getLineComparator() instanceof IndexLineComparator))
+			throw new IllegalArgumentException(
+					"Hashed lookups are only supported for index files");
+
+		// on duplicate lemmas, the first line wins; the lines are compared in
+		// the buffer, so building the table decodes no strings
+		fTable = new OpenHashTable(fLines.length);
+		for (int line : fLines)
+			fTable.add(hash(fBuffer, line), line, fLineMatcher);
+	}
+
+	/**
+	 * (non-Javadoc)
+	 * 
+	 * @see BinarySearchWordnetJarFile#getLineView(java.lang.String, LineView)
+	 */
+	public boolean getLineView(String key, LineView view) {
+		if (fDetector != null && fDetector.isCommentLine(key))
+			return super.getLineView(key, view);
+
+		long start = startLookup();
+		int[] probes = fMetrics == null ? null : new int[1];
+		int line = fTable.find(hash(key), key, fMatcher, probes);
+		int count = probes == null ? 0 : probes[0];
+		if (line < 0)
+			return endLookup(start, null, count, 0);
+		return endLookup(start, view.set(fBuffer, line, getLineEnd(fBuffer,
+				line)), count, 0);
+	}
+
+	/**
+	 * Hashed lookups gain nothing from sorting the keys, so each distinct key
+	 * is looked up on its own.
+	 * 
+	 * @see BinarySearchWordnetJarFile#getLines(java.util.Collection)
+	 */
+	@Override
+	public List<String> getLines(Collection<String> keys) {
+		return getLinesByKey(keys);
+	}
+
+	/**
+	 * Hashes the lower-cased key field of the line starting at the specified
+	 * position, consistently with {@link #hash(String)}.
+	 */
+	protected static int hash(ByteBuffer buf, int start) {
+		int limit = buf.limit();
+		int hash = 0;
+		for (int i = start; i < limit; i++) {
+			char c = (char) buf.get(i);
+			if (c == SPACE || c == '\n' || c == '\r')
+				break;
+			hash = 31 * hash + Character.toLowerCase(c);
+		}
+		return OpenHashTable.mix(hash);
+	}
+
+	/**
+	 * Checks whether the lines starting at the specified positions have the
+	 * same lower-cased key field, consistently with {@link #hash(ByteBuffer,
+	 * int)}.
+	 */
+	protected static boolean keyEquals(ByteBuffer buf, int start, int other) {
+		int limit = buf.limit();
+		for (int i = start, j = other;; i++, j++) {
+			boolean end = i >= limit || isKeyEnd(buf.get(i));
+			boolean otherEnd = j >= limit || isKeyEnd(buf.get(j));
+			if (end || otherEnd)
+				return end && otherEnd;
+			if (Character.toLowerCase((char) buf.get(i)) != Character
+					.toLowerCase((char) buf.get(j)))
+				return false;
+		}
+	}
+
+	private static boolean isKeyEnd(byte b) {
+		return b == SPACE || b == '\n' || b == '\r';
+	}
+
+	/**
+	 * Hashes the lower-cased key field, i.e. everything up to the first space,
+	 * of the specified key.
+	 */
+	protected static int hash(String key) {
+		int hash = 0;
+		for (int i = 0; i < key.length(); i++) {
+			char c = key.charAt(i);
+			if (c == SPACE)
+				break;
+			hash = 31 * hash + Character.toLowerCase(c);
+		}
+		return OpenHashTable.mix(hash);
+	}
+}
\ No newline at end of file
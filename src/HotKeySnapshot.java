@@ -0,0 +1,326 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import edu.mit.jwi.ItemCache;
+import edu.mit.jwi.data.ContentType;
+import edu.mit.jwi.data.IDataProvider;
+import edu.mit.jwi.data.parse.SenseKeyParser;
+import edu.mit.jwi.item.IExceptionEntry;
+import edu.mit.jwi.item.IIndexWord;
+import edu.mit.jwi.item.ISenseEntry;
+import edu.mit.jwi.item.ISenseKey;
+import edu.mit.jwi.item.ISynset;
+import edu.mit.jwi.item.ISynsetID;
+import edu.mit.jwi.item.IWord;
+import edu.mit.jwi.item.POS;
+import edu.mit.jwi.item.SynsetID;
+
+/**
+ * A small local file holding the keys of the hottest items of the cache of a
+ * {@link JarDictionary}, so that a restarted dictionary gets its working set
+ * back. Only the keys are saved, most frequently used first: offsets of
+ * synsets, lemmas of index words, surface forms of exception entries and
+ * sense keys of sense entries. Words are saved as their synsets, which bring
+ * their words back into the cache. The items are reloaded from the data
+ * sources with bulk lookups, in chunks of {@value #CHUNK_SIZE} keys, so the
+ * hottest ones are back first.
+ * <p>
+ * The file is plain text in UTF-8. The first line is {@link #HEADER}, and
+ * each further line holds the kind of item, the tag of its part of speech
+ * and its key, separated by tabs. Keys which are not found any more, e.g.
+ * after the dictionary has been replaced by another version, are skipped.
+ * <p>
+ * A snapshot is usually set on the {@link DictionaryWarmUp} of a dictionary,
+ * which reloads it when the dictionary is opened; the dictionary saves it
+ * when it is closed.
+ * 
+ * @author Markus HAENSE
+ */
+public class HotKeySnapshot {
+
+	/** First line of a snapshot file, including the format version */
+	public static final String HEADER = "# JarDictionary hot keys 1";
+
+	public static final int DEFAULT_MAXIMUM_KEYS = 10000;
+
+	/** Number of keys reloaded together */
+	public static final int CHUNK_SIZE = 512;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final char SEPARATOR = '\t';
+	private static final char SYNSET = 'S';
+	private static final char INDEX_WORD = 'I';
+	private static final char EXCEPTION_ENTRY = 'E';
+	private static final char SENSE_ENTRY = 'K';
+
+	private final File fFile;
+	private int fMaximumKeys = DEFAULT_MAXIMUM_KEYS;
+
+	public HotKeySnapshot(File file) {
+		if (file == null)
+			throw new NullPointerException();
+		fFile = file;
+	}
+
+	/**
+	 * Returns the file the keys are saved to.
+	 */
+	public File getFile() {
+		return fFile;
+	}
+
+	/**
+	 * Returns the maximum number of keys saved.
+	 */
+	public int getMaximumKeys() {
+		return fMaximumKeys;
+	}
+
+	/**
+	 * Sets the maximum number of keys saved, which bounds the size of the
+	 * file and the time to reload it.
+	 */
+	public void setMaximumKeys(int maximumKeys) {
+		if (maximumKeys < 0)
+			throw new IllegalArgumentException("Negative number of keys: "
+					+ maximumKeys);
+		fMaximumKeys = maximumKeys;
+	}
+
+	/**
+	 * Saves the keys of the hottest items of the cache of the dictionary and
+	 * returns their number. Nothing is saved if the cache is not a
+	 * {@link ConcurrentItemCache}, which is the only one that counts the uses
+	 * of its items. The keys are written to a temporary file first, which
+	 * then replaces the snapshot file, so a reader never sees half a file.
+	 */
+	public int save(JarDictionary dict) throws IOException {
+		ItemCache cache = dict.getCache();
+		if (!(cache instanceof ConcurrentItemCache))
+			return 0;
+
+		// collect more items than keys, as words of the same synset collapse
+		List<Object> items = ((ConcurrentItemCache) cache)
+				.getHottestItems(fMaximumKeys * 2);
+		Set<String> keys = new LinkedHashSet<String>();
+		for (Object item : items) {
+			if (keys.size() == fMaximumKeys)
+				break;
+			String key = toKey(item);
+			if (key != null)
+				keys.add(key);
+		}
+
+		File dir = fFile.getAbsoluteFile().getParentFile();
+		File tmp = File.createTempFile(fFile.getName(), ".tmp", dir);
+		try {
+			Writer writer = new BufferedWriter(new OutputStreamWriter(
+					new FileOutputStream(tmp), UTF8));
+			try {
+				writer.write(HEADER);
+				writer.write('\n');
+				for (String key : keys) {
+					writer.write(key);
+					writer.write('\n');
+				}
+			} finally {
+				writer.close();
+			}
+			if (!tmp.renameTo(fFile)) {
+				// renaming onto an existing file fails on some platforms
+				if (!fFile.delete() || !tmp.renameTo(fFile))
+					throw new IOException("Unable to replace " + fFile);
+			}
+		} finally {
+			tmp.delete();
+		}
+		return keys.size();
+	}
+
+	/**
+	 * Returns the keys saved in the file, hottest first. They are empty if
+	 * there is no file.
+	 * 
+	 * @throws IOException
+	 *             if the file cannot be read or is not a snapshot
+	 */
+	public List<String> read() throws IOException {
+		List<String> keys = new ArrayList<String>();
+		BufferedReader reader;
+		try {
+			reader = new BufferedReader(new InputStreamReader(
+					new FileInputStream(fFile), UTF8));
+		} catch (FileNotFoundException e) {
+			return keys;
+		}
+		try {
+			String line = reader.readLine();
+			if (line == null)
+				return keys;
+			if (!HEADER.equals(line))
+				throw new IOException("Not a hot key snapshot: " + fFile);
+			while ((line = reader.readLine()) != null)
+				if (line.length() > 0)
+					keys.add(line);
+		} finally {
+			reader.close();
+		}
+		return keys;
+	}
+
+	/**
+	 * Reads the saved keys and puts their items into the cache of the
+	 * dictionary, hottest first, and returns the number of items found.
+	 * Cancelling the future stops the reload between two chunks.
+	 */
+	public int reload(JarDictionary dict, CompletableFuture<?> future)
+			throws IOException {
+		List<String> keys = read();
+		int found = 0;
+		for (int from = 0; from < keys.size(); from += CHUNK_SIZE) {
+			if (future.isDone())
+				break;
+			found += reload(dict, keys.subList(from, Math.min(from
+					+ CHUNK_SIZE, keys.size())));
+		}
+		return found;
+	}
+
+	/**
+	 * Reloads one chunk of keys. The lemmas of index words are looked up
+	 * together, and the synsets in the order of their offsets.
+	 */
+	protected int reload(JarDictionary dict, List<String> keys) {
+		IDataProvider provider = dict.getDataProvider();
+		Map<POS, List<String>> lemmas = new EnumMap<POS, List<String>>(
+				POS.class);
+		// part of speech and offset of each synset, packed so they sort
+		long[] synsets = new long[keys.size()];
+		int synsetCount = 0;
+		int found = 0;
+
+		for (String key : keys) {
+			if (key.length() < 4 || key.charAt(1) != SEPARATOR
+					|| key.charAt(3) != SEPARATOR)
+				continue;
+			POS pos = POS.getPartOfSpeech(key.charAt(2));
+			String name = key.substring(4);
+			switch (key.charAt(0)) {
+			case INDEX_WORD:
+				if (pos != null
+						&& provider.getSource(ContentType
+								.getIndexContentType(pos)) != null) {
+					List<String> list = lemmas.get(pos);
+					if (list == null)
+						lemmas.put(pos, list = new ArrayList<String>());
+					list.add(name);
+				}
+				break;
+			case SYNSET:
+				int offset = parseOffset(name);
+				if (pos != null
+						&& offset >= 0
+						&& provider.getSource(ContentType
+								.getDataContentType(pos)) != null)
+					synsets[synsetCount++] = (long) pos.getNumber() << 32
+							| offset;
+				break;
+			case EXCEPTION_ENTRY:
+				if (pos != null
+						&& provider.getSource(ContentType
+								.getExceptionContentType(pos)) != null
+						&& dict.getExceptionEntry(name, pos) != null)
+					found++;
+				break;
+			case SENSE_ENTRY:
+				if (provider.getSource(ContentType.SENSE) != null) {
+					ISenseKey senseKey;
+					try {
+						senseKey = SenseKeyParser.getInstance().parseLine(name);
+					} catch (RuntimeException e) {
+						break;
+					}
+					if (dict.getSenseEntry(senseKey) != null)
+						found++;
+				}
+				break;
+			}
+		}
+
+		for (Map.Entry<POS, List<String>> entry : lemmas.entrySet())
+			for (IIndexWord word : dict.getIndexWords(entry.getValue(), entry
+					.getKey()))
+				if (word != null)
+					found++;
+
+		Arrays.sort(synsets, 0, synsetCount);
+		for (int i = 0; i < synsetCount; i++) {
+			POS pos = POS.getPartOfSpeech((int) (synsets[i] >>> 32));
+			if (dict.getSynset(new SynsetID((int) synsets[i], pos)) != null)
+				found++;
+		}
+		return found;
+	}
+
+	/**
+	 * Returns the line of the specified cached item, or <code>null</code> if
+	 * items of its kind are not saved.
+	 */
+	protected static String toKey(Object item) {
+		if (item instanceof IWord)
+			item = ((IWord) item).getSynset();
+		if (item instanceof ISynset) {
+			ISynsetID id = ((ISynset) item).getID();
+			return toKey(SYNSET, id.getPOS(), Integer.toString(id.getOffset()));
+		}
+		if (item instanceof IIndexWord) {
+			IIndexWord word = (IIndexWord) item;
+			return toKey(INDEX_WORD, word.getPOS(), word.getLemma());
+		}
+		if (item instanceof IExceptionEntry) {
+			IExceptionEntry entry = (IExceptionEntry) item;
+			return toKey(EXCEPTION_ENTRY, entry.getPOS(), entry
+					.getSurfaceForm());
+		}
+		if (item instanceof ISenseEntry) {
+			ISenseKey key = ((ISenseEntry) item).getSenseKey();
+			if (key.needsHeadSet())
+				return null;
+			return toKey(SENSE_ENTRY, key.getPOS(), key.toString());
+		}
+		return null;
+	}
+
+	private static String toKey(char kind, POS pos, String name) {
+		if (name.indexOf('\n') >= 0)
+			return null;
+		return new StringBuilder(name.length() + 4).append(kind).append(
+				SEPARATOR).append(pos.getTag()).append(SEPARATOR).append(name)
+				.toString();
+	}
+
+	private static int parseOffset(String name) {
+		try {
+			return Integer.parseInt(name);
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+}
\ No newline at end of file
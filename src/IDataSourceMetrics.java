@@ -0,0 +1,34 @@
+import edu.mit.jwi.data.IContentType;
+
+/**
+ * Receives the measurements of the data sources. Implementations must be
+ * thread-safe, since the data sources report from all reading threads. A data
+ * source without metrics does not measure anything.
+ * 
+ * @author Markus HAENSE
+ */
+public interface IDataSourceMetrics {
+
+	/**
+	 * Records a call to {@code getLine}.
+	 * 
+	 * @param type
+	 *            the content type of the data source
+	 * @param hit
+	 *            <code>true</code> if a line was found
+	 * @param probes
+	 *            the number of lines compared to the key
+	 * @param bytesScanned
+	 *            the number of bytes skipped to find the start of lines, plus
+	 *            the length of the line returned
+	 * @param nanos
+	 *            the duration of the call
+	 */
+	public void recordLookup(IContentType<?> type, boolean hit, int probes,
+			int bytesScanned, long nanos);
+
+	/**
+	 * Records lines returned by an iterator of a data source.
+	 */
+	public void recordIteration(IContentType<?> type, int lines);
+}
\ No newline at end of file
@@ -11,10 +11,42 @@
  * at 617-253-6966 for further inquiry.
  *******************************************************************************/
 
+import java.io.IOException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import edu.mit.jwi.Dictionary;
+import edu.mit.jwi.ItemCache;
+import edu.mit.jwi.data.IContentType;
 import edu.mit.jwi.data.IDataProvider;
+import edu.mit.jwi.data.IDataSource;
+import edu.mit.jwi.data.parse.ILineParser;
+import edu.mit.jwi.item.IExceptionEntry;
+import edu.mit.jwi.item.IExceptionEntryID;
+import edu.mit.jwi.item.IIndexWord;
+import edu.mit.jwi.item.IIndexWordID;
+import edu.mit.jwi.item.ISenseEntry;
+import edu.mit.jwi.item.ISenseKey;
+import edu.mit.jwi.item.ISynset;
+import edu.mit.jwi.item.ISynsetID;
+import edu.mit.jwi.item.IWord;
+import edu.mit.jwi.item.IWordID;
+import edu.mit.jwi.item.IndexWordID;
+import edu.mit.jwi.item.POS;
+import edu.mit.jwi.item.Synset;
 
 /**
  * Basic implementation of the {@code IDictionary} interface. A path to the
@@ -28,16 +60,633 @@ import edu.mit.jwi.data.IDataProvider;
  * cache via the {@link #getCache()} method and set the maximum cache size via
  * the {@link edu.mit.jwi.ItemCache#setMaximumCapacity(int)} method. If you have
  * a specialized implementation for your cache, you can subclass the
- * {@code Dictionary} class and override the {@link #createCache()} method.
+ * {@code Dictionary} class and override the {@link #createCache()} method,
+ * or pass the cache to the constructor. For dictionaries shared between many
+ * threads, {@link ConcurrentItemCache} is a better choice than the default.
  * 
  * @author Markus HAENSE
  */
 public class JarDictionary extends Dictionary {
+	/** Synset type of an adjective satellite in a sense key */
+	private static final int SATELLITE_TYPE = 5;
+
+	private volatile Epoch fEpoch;
+
+	/** The epoch pinned by the outermost lookup in progress in each thread */
+	private final ThreadLocal<Pin> fPins = new ThreadLocal<Pin>() {
+		@Override
+		protected Pin initialValue() {
+			return new Pin();
+		}
+	};
+	private DictionaryWarmUp fWarmUp = null;
+	private volatile CompletableFuture<Void> fReady = CompletableFuture
+			.completedFuture(null);
+
 	public JarDictionary(URL url) {
-		super(new JarFileProvider(url));
+		this(new JarFileProvider(url));
 	}
 
 	public JarDictionary(IDataProvider provider) {
 		super(provider);
+		fEpoch = new Epoch(super.getCache());
+	}
+
+	public JarDictionary(URL url, ItemCache cache) {
+		this(new JarFileProvider(url), cache);
+	}
+
+	public JarDictionary(IDataProvider provider, ItemCache cache) {
+		super(provider);
+		if (cache == null)
+			throw new NullPointerException();
+		fEpoch = new Epoch(cache);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see edu.mit.jwi.Dictionary#getCache()
+	 */
+	@Override
+	public ItemCache getCache() {
+		Epoch epoch = fEpoch;
+		// the super constructor may ask for the cache before the epoch is set
+		if (epoch == null)
+			return super.getCache();
+		Epoch pinned = fPins.get().fEpoch;
+		return pinned == null ? epoch.fCache : pinned.fCache;
+	}
+
+	/**
+	 * Returns the warm-up started whenever the dictionary is opened, or
+	 * <code>null</code> if there is none.
+	 */
+	public DictionaryWarmUp getWarmUp() {
+		return fWarmUp;
+	}
+
+	/**
+	 * Sets the warm-up to start in the background when the dictionary is
+	 * next opened. If <code>null</code>, the dictionary is ready as soon as it
+	 * is open.
+	 */
+	public void setWarmUp(DictionaryWarmUp warmUp) {
+		fWarmUp = warmUp;
+	}
+
+	/**
+	 * Returns a future that completes when the warm-up started by the last
+	 * opening is done, e.g. to route traffic to this node only afterwards. It
+	 * is already complete if there is no warm-up, and it completes
+	 * exceptionally if the warm-up fails.
+	 */
+	public CompletableFuture<Void> getReadyFuture() {
+		return fReady;
+	}
+
+	/**
+	 * Returns <code>true</code> if the dictionary is open and its warm-up, if
+	 * any, has completed successfully.
+	 */
+	public boolean isReady() {
+		CompletableFuture<Void> ready = fReady;
+		return isOpen() && ready.isDone() && !ready.isCompletedExceptionally();
+	}
+
+	/**
+	 * Opens the dictionary and starts the warm-up, if any.
+	 * 
+	 * @see edu.mit.jwi.Dictionary#open()
+	 */
+	@Override
+	public boolean open() {
+		boolean wasOpen = isOpen();
+		boolean opened = super.open();
+		if (opened && !wasOpen) {
+			DictionaryWarmUp warmUp = fWarmUp;
+			fReady = warmUp == null ? CompletableFuture
+					.<Void> completedFuture(null) : warmUp.start(this);
+		}
+		return opened;
+	}
+
+	/**
+	 * Closes the dictionary, after saving the hot keys of the cache if the
+	 * warm-up has a {@link HotKeySnapshot}. They are only saved if the
+	 * warm-up has completed, so a dictionary closed while it is still warming
+	 * up keeps the previous snapshot.
+	 * 
+	 * @see edu.mit.jwi.Dictionary#close()
+	 */
+	@Override
+	public void close() {
+		boolean ready = isReady();
+		fReady.cancel(false);
+		DictionaryWarmUp warmUp = fWarmUp;
+		HotKeySnapshot hotKeys = warmUp == null ? null : warmUp
+				.getHotKeySnapshot();
+		if (ready && hotKeys != null) {
+			try {
+				hotKeys.save(this);
+			} catch (IOException e) {
+				System.err.println(System.currentTimeMillis()
+						+ " - Error saving the hot keys to "
+						+ hotKeys.getFile() + ": " + e);
+			}
+		}
+		super.close();
+		fEpoch = new Epoch(fEpoch.fCache);
+	}
+
+	/**
+	 * Reloads the data sources of the provider, e.g. to roll out a new build
+	 * of the dictionary without restarting, and then drops the items, tries
+	 * and graphs built from the previous sources. The dictionary stays open
+	 * and serves the previous sources until the new ones are swapped in.
+	 * Tries and graphs still being built from the previous sources are
+	 * discarded when they are done.
+	 * <p>
+	 * The reload does not wait for lookups in progress. Each lookup works
+	 * with the cache of the epoch it started in, and the reload gives the new
+	 * epoch a fresh cache with the settings of the previous one, so whatever
+	 * lookups on the previous sources still put into the previous cache is
+	 * dropped with it. Consequently {@link #getCache()} returns a different
+	 * instance after a reload. Only a {@link ConcurrentItemCache} or a plain
+	 * {@link ItemCache} can be renewed this way; a cache of another class is
+	 * cleared and kept, and may then still receive items read from the
+	 * previous sources by lookups in progress during the reload.
+	 * 
+	 * @throws UnsupportedOperationException
+	 *             if the provider is not a {@link JarFileProvider}
+	 * @throws IOException
+	 *             if the new sources cannot be loaded, in which case the
+	 *             previous ones are kept
+	 * @see JarFileProvider#reload()
+	 */
+	public void reload() throws IOException {
+		checkOpen();
+		IDataProvider provider = getDataProvider();
+		if (!(provider instanceof JarFileProvider))
+			throw new UnsupportedOperationException("Cannot reload "
+					+ provider.getClass().getName());
+		((JarFileProvider) provider).reload();
+		// the epoch is replaced after the sources, so a lookup that pins the
+		// new epoch only reads the new sources
+		Epoch previous = fEpoch;
+		ItemCache cache = renewCache(previous.fCache);
+		fEpoch = new Epoch(cache == null ? previous.fCache : cache);
+		previous.fCache.clear();
+	}
+
+	/**
+	 * Returns an empty, initialized cache of the same class and with the same
+	 * settings as the specified one, or <code>null</code> if the class is not
+	 * known.
+	 */
+	private static ItemCache renewCache(ItemCache cache) {
+		ItemCache renewed;
+		if (cache.getClass() == ConcurrentItemCache.class) {
+			ConcurrentItemCache concurrent = (ConcurrentItemCache) cache;
+			renewed = new ConcurrentItemCache(concurrent.getMaximumWeight(),
+					concurrent.getMaximumCapacity());
+		} else if (cache.getClass() == ItemCache.class) {
+			renewed = new ItemCache(cache.getInitialCapacity(), cache
+					.getMaximumCapacity(), true);
+		} else {
+			return null;
+		}
+		renewed.setCachingEnabled(cache.isCachingEnabled());
+		renewed.init();
+		return renewed;
+	}
+
+	/**
+	 * Returns the trie of the lemmas of the specified part of speech, for
+	 * prefix searches. It is built from the index file when it is first
+	 * requested after the dictionary has been opened.
+	 */
+	public LemmaTrie getLemmaTrie(POS pos) {
+		checkOpen();
+		// the epoch is replaced after the sources, so it is never newer
+		Epoch epoch = fEpoch;
+		LemmaTrie trie = epoch.fTries.get(pos);
+		if (trie == null) {
+			LemmaTrie built = LemmaTrie.build(getDataProvider().getSource(
+					resolveIndexContentType(pos)));
+			trie = epoch.fTries.putIfAbsent(pos, built);
+			if (trie == null)
+				trie = built;
+		}
+		return trie;
+	}
+
+	/**
+	 * Returns the graph of the pointers between the synsets of the specified
+	 * part of speech, for queries on the hypernym hierarchy. It is built from
+	 * the data file when it is first requested after the dictionary has been
+	 * opened.
+	 */
+	public PointerGraph getPointerGraph(POS pos) {
+		checkOpen();
+		Epoch epoch = fEpoch;
+		PointerGraph graph = epoch.fGraphs.get(pos);
+		if (graph == null) {
+			PointerGraph built = PointerGraph.build(getDataProvider()
+					.getSource(resolveDataContentType(pos)));
+			graph = epoch.fGraphs.putIfAbsent(pos, built);
+			if (graph == null)
+				graph = built;
+		}
+		return graph;
+	}
+
+	/*
+	 * The lookups which may put items into the cache pin the current epoch,
+	 * so that they keep using its cache even if a reload replaces it.
+	 */
+
+	@Override
+	public IIndexWord getIndexWord(IIndexWordID id) {
+		Pin pin = pin();
+		try {
+			return super.getIndexWord(id);
+		} finally {
+			unpin(pin);
+		}
+	}
+
+	@Override
+	public IWord getWord(IWordID id) {
+		Pin pin = pin();
+		try {
+			return super.getWord(id);
+		} finally {
+			unpin(pin);
+		}
+	}
+
+	@Override
+	public IWord getWord(ISenseKey key) {
+		Pin pin = pin();
+		try {
+			return super.getWord(key);
+		} finally {
+			unpin(pin);
+		}
+	}
+
+	@Override
+	public ISenseEntry getSenseEntry(ISenseKey key) {
+		Pin pin = pin();
+		try {
+			return super.getSenseEntry(key);
+		} finally {
+			unpin(pin);
+		}
+	}
+
+	@Override
+	public ISynset getSynset(ISynsetID id) {
+		Pin pin = pin();
+		try {
+			return super.getSynset(id);
+		} finally {
+			unpin(pin);
+		}
+	}
+
+	@Override
+	public IExceptionEntry getExceptionEntry(IExceptionEntryID id) {
+		Pin pin = pin();
+		try {
+			return super.getExceptionEntry(id);
+		} finally {
+			unpin(pin);
+		}
+	}
+
+	/**
+	 * Pins the current epoch for the lookups of the calling thread, unless
+	 * an enclosing lookup already did, and returns the pin to release, or
+	 * <code>null</code> if there is none.
+	 */
+	private Pin pin() {
+		Pin pin = fPins.get();
+		if (pin.fEpoch != null)
+			return null;
+		pin.fEpoch = fEpoch;
+		return pin;
+	}
+
+	private static void unpin(Pin pin) {
+		if (pin != null)
+			pin.fEpoch = null;
+	}
+
+	/**
+	 * Returns the index words for the specified lemmas, in the iteration
+	 * order of the lemmas. The index word of a lemma that is not found is
+	 * <code>null</code>. The lemmas that are not cached are resolved together,
+	 * which is much faster than looking them up one by one if the data source
+	 * is a {@link WordnetJarFile}.
+	 */
+	public List<IIndexWord> getIndexWords(Collection<String> lemmas, POS pos) {
+		checkOpen();
+		IIndexWord[] words = new IIndexWord[lemmas.size()];
+		List<Integer> missing = new ArrayList<Integer>();
+		List<String> keys = new ArrayList<String>();
+		int i = 0;
+		for (String lemma : lemmas) {
+			IIndexWordID id = new IndexWordID(lemma, pos);
+			words[i] = getCache().retrieveIndexWord(id);
+			if (words[i] == null) {
+				missing.add(i);
+				keys.add(id.getLemma());
+			}
+			i++;
+		}
+		if (missing.isEmpty())
+			return Arrays.asList(words);
+
+		Pin pin = pin();
+		try {
+			IContentType<IIndexWord> type = resolveIndexContentType(pos);
+			IDataSource<IIndexWord> source = getDataProvider().getSource(type);
+			List<String> lines;
+			if (source instanceof WordnetJarFile<?>) {
+				lines = ((WordnetJarFile<IIndexWord>) source).getLines(keys);
+			} else {
+				lines = new ArrayList<String>(keys.size());
+				for (String key : keys)
+					lines.add(source.getLine(key));
+			}
+
+			ILineParser<IIndexWord> parser = type.getDataType().getParser();
+			for (int j = 0; j < lines.size(); j++) {
+				String line = lines.get(j);
+				if (line == null)
+					continue;
+				IIndexWord word = parser.parseLine(line);
+				getCache().cacheIndexWord(word);
+				words[missing.get(j)] = word;
+			}
+		} finally {
+			unpin(pin);
+		}
+		return Arrays.asList(words);
+	}
+
+	/**
+	 * Returns the tag counts of the senses, or <code>null</code> if the data
+	 * provider has none.
+	 * 
+	 * @see JarFileProvider#getSenseFrequencyIndex()
+	 */
+	public SenseFrequencyIndex getSenseFrequencyIndex() {
+		checkOpen();
+		IDataProvider provider = getDataProvider();
+		if (provider instanceof JarFileProvider)
+			return ((JarFileProvider) provider).getSenseFrequencyIndex();
+		return null;
+	}
+
+	/**
+	 * Returns the words of at most the specified number of the most frequent
+	 * senses of the lemma with the part of speech, most frequent first, or an
+	 * empty list if the lemma is not found. The senses are ranked by the tag
+	 * counts of the {@link SenseFrequencyIndex}, whose sense numbers locate
+	 * the senses in the index word. Only the index line of the lemma and the
+	 * data lines of the returned senses are parsed; a sense key whose number
+	 * is out of date is matched against the data lines of the other senses
+	 * by its lexicographer file and lexical ID, without parsing them, except
+	 * for adjective satellites, whose head word is also compared. Senses
+	 * that have never been tagged follow in the order of the index word, which
+	 * is the order of all senses if there are no tag counts.
+	 */
+	public List<IWord> getMostFrequentWords(String lemma, POS pos, int k) {
+		checkOpen();
+		if (k < 0)
+			throw new IllegalArgumentException("Negative number of senses: "
+					+ k);
+		IIndexWord indexWord = getIndexWord(lemma, pos);
+		if (indexWord == null)
+			return Collections.emptyList();
+
+		List<IWordID> ids = indexWord.getWordIDs();
+		int count = Math.min(k, ids.size());
+		List<IWord> words = new ArrayList<IWord>(count);
+		boolean[] added = new boolean[ids.size()];
+		SenseFrequencyIndex index = getSenseFrequencyIndex();
+		if (index != null) {
+			IDataSource<ISynset> source = getDataProvider().getSource(
+					resolveDataContentType(pos));
+			LineView view = new LineView();
+			for (int entry : index.getMostFrequent(indexWord.getLemma(), pos,
+					Integer.MAX_VALUE)) {
+				if (words.size() == count)
+					break;
+				int sense = findSense(index, entry, ids, added, source, view);
+				if (sense >= 0) {
+					added[sense] = true;
+					words.add(getWord(ids.get(sense)));
+				}
+			}
+		}
+		for (int i = 0; i < ids.size() && words.size() < count; i++) {
+			if (!added[i])
+				words.add(getWord(ids.get(i)));
+		}
+		return words;
+	}
+
+	/**
+	 * Returns the position of the word of the specified entry of the index in
+	 * the word IDs, trying the sense number of the entry first, or -1 if the
+	 * entry belongs to none of the words that have not been added yet.
+	 */
+	private int findSense(SenseFrequencyIndex index, int entry,
+			List<IWordID> ids, boolean[] added, IDataSource<ISynset> source,
+			LineView view) {
+		// lemma%ss_type:lex_filenum:lex_id:head_word:head_id
+		String senseKey = index.getSenseKey(entry);
+		int percent = senseKey.indexOf('%');
+		int lexFile = senseKey.indexOf(':', percent) + 1;
+		int lexId = senseKey.indexOf(':', lexFile) + 1;
+		int end = senseKey.indexOf(':', lexId);
+		if (percent == -1 || lexFile == 0 || lexId == 0 || end == -1)
+			return -1;
+		String lemma = senseKey.substring(0, percent);
+		int type = parseInt(senseKey, percent + 1, lexFile - 1, 10);
+		int lexFileNumber = parseInt(senseKey, lexFile, lexId - 1, 10);
+		int lexIdNumber = parseInt(senseKey, lexId, end, 10);
+		if (type < 0 || lexFileNumber < 0 || lexIdNumber < 0)
+			return -1;
+
+		int hint = index.getSenseNumber(entry) - 1;
+		if (hint >= 0 && hint < ids.size() && !added[hint]
+				&& hasSense(index, entry, ids.get(hint), lemma, type,
+						lexFileNumber, lexIdNumber, source, view))
+			return hint;
+		for (int i = 0; i < ids.size(); i++) {
+			if (i != hint && !added[i]
+					&& hasSense(index, entry, ids.get(i), lemma, type,
+							lexFileNumber, lexIdNumber, source, view))
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns <code>true</code> if the synset of the word ID has the
+	 * specified synset type and lexicographer file and its word with the
+	 * lemma has the specified lexical ID, which together identify a sense of
+	 * the lemma. Only these fields of the data line are read; the synset is
+	 * only parsed for an adjective satellite, whose sense key also depends on
+	 * the head synset.
+	 */
+	private boolean hasSense(SenseFrequencyIndex index, int entry,
+			IWordID id, String lemma, int type, int lexFile, int lexId,
+			IDataSource<ISynset> source, LineView view) {
+		String key = Synset.zeroFillOffset(id.getSynsetID().getOffset());
+		CharSequence line;
+		if (source instanceof WordnetJarFile<?>)
+			line = ((WordnetJarFile<?>) source).getLineView(key, view) ? view
+					: null;
+		else
+			line = source.getLine(key);
+		if (line == null)
+			return false;
+
+		// synset_offset lex_filenum ss_type w_cnt word lex_id [word lex_id...]
+		int start = endOfField(line, 0) + 1;
+		int end = endOfField(line, start);
+		if (parseInt(line, start, end, 10) != lexFile)
+			return false;
+		start = end + 1;
+		end = endOfField(line, start);
+		if (end - start != 1)
+			return false;
+		int tag = line.charAt(start) == 's' ? SATELLITE_TYPE : id.getPOS()
+				.getNumber();
+		if (tag != type)
+			return false;
+		start = end + 1;
+		end = endOfField(line, start);
+		int words = parseInt(line, start, end, 16);
+		for (int i = 0; i < words; i++) {
+			start = end + 1;
+			end = endOfField(line, start);
+			int idStart = end + 1;
+			int idEnd = endOfField(line, idStart);
+			if (isLemma(line, start, end, lemma)) {
+				if (parseInt(line, idStart, idEnd, 16) != lexId)
+					return false;
+				if (type != SATELLITE_TYPE)
+					return true;
+				IWord word = getWord(id);
+				return word != null
+						&& index.getEntry(word.getSenseKey()) == entry;
+			}
+			end = idEnd;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns <code>true</code> if the word between the indexes is the lemma,
+	 * ignoring case and the syntactic marker of an adjective.
+	 */
+	private static boolean isLemma(CharSequence line, int start, int end,
+			String lemma) {
+		int length = lemma.length();
+		if (end - start < length
+				|| (end - start > length && line.charAt(start + length) != '('))
+			return false;
+		for (int i = 0; i < length; i++) {
+			if (Character.toLowerCase(line.charAt(start + i)) != lemma
+					.charAt(i))
+				return false;
+		}
+		return true;
+	}
+
+	private static int endOfField(CharSequence line, int start) {
+		for (int i = start; i < line.length(); i++) {
+			if (line.charAt(i) == ' ')
+				return i;
+		}
+		return line.length();
+	}
+
+	/**
+	 * Parses the non-negative number between the indexes, or returns -1 if
+	 * there is none.
+	 */
+	private static int parseInt(CharSequence cs, int start, int end, int radix) {
+		if (start >= end || end > cs.length())
+			return -1;
+		int value = 0;
+		for (int i = start; i < end; i++) {
+			int digit = Character.digit(cs.charAt(i), radix);
+			if (digit < 0)
+				return -1;
+			value = value * radix + digit;
+		}
+		return value;
+	}
+
+	/**
+	 * Returns a stream over all synsets of the specified part of speech. If
+	 * the data source is a {@link WordnetJarFile}, the stream can be turned
+	 * into a parallel one which parses the synsets of different parts of the
+	 * file concurrently.
+	 */
+	public Stream<ISynset> getSynsetStream(final POS pos) {
+		checkOpen();
+		IContentType<ISynset> type = resolveDataContentType(pos);
+		IDataSource<ISynset> source = getDataProvider().getSource(type);
+		Stream<String> lines;
+		if (source instanceof WordnetJarFile<?>) {
+			lines = ((WordnetJarFile<ISynset>) source).lines();
+		} else {
+			Iterator<String> iterator = source.iterator();
+			lines = StreamSupport.stream(Spliterators.spliteratorUnknownSize(
+					iterator, Spliterator.ORDERED | Spliterator.NONNULL), false);
+		}
+
+		final ILineParser<ISynset> parser = type.getDataType().getParser();
+		return lines.map(new Function<String, ISynset>() {
+			public ISynset apply(String line) {
+				ISynset synset = parser.parseLine(line);
+				// as in the synset iterator of the dictionary
+				if (pos == POS.ADJECTIVE)
+					setHeadWord(synset);
+				return synset;
+			}
+		});
+	}
+
+	/**
+	 * The cache, tries and graphs of one set of data sources of the provider.
+	 * A reload replaces the epoch after the data sources, so whatever is
+	 * built or cached for a previous epoch is dropped with it.
+	 */
+	private static final class Epoch {
+		final ItemCache fCache;
+		final ConcurrentMap<POS, LemmaTrie> fTries = new ConcurrentHashMap<POS, LemmaTrie>();
+		final ConcurrentMap<POS, PointerGraph> fGraphs = new ConcurrentHashMap<POS, PointerGraph>();
+
+		Epoch(ItemCache cache) {
+			fCache = cache;
+		}
+	}
+
+	/**
+	 * The epoch a thread works with during a lookup, <code>null</code>
+	 * outside of lookups. Only the owning thread accesses it.
+	 */
+	private static final class Pin {
+		Epoch fEpoch;
 	}
 }
\ No newline at end of file
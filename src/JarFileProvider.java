@@ -11,12 +11,17 @@
  * at 617-253-6966 for further inquiry.
  *******************************************************************************/
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.lang.reflect.Method;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -28,6 +33,14 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 
@@ -51,19 +64,45 @@ import edu.mit.jwi.item.Synset;
  * hints from the {@link IDataType#getResourceNameHints()} and
  * {@link POS#getResourceNameHints()} interfaces to examine the filenames in the
  * that directory to determine which files contain which data.
+ * <p>
+ * The JAR file and the directory of the Wordnet files in it are configured
+ * per provider, so dictionaries of different Wordnet versions can be hosted
+ * side by side. The content of the files is shared through a
+ * {@link BufferRegistry} with the other providers that load the same files.
+ * <p>
+ * The data sources loaded by one opening form a {@link Generation}. Readers
+ * take the current generation without locking, and {@link #reload()} builds a
+ * new one while the current one keeps serving, then swaps it in atomically.
+ * Lookups and iterators in progress finish on the sources of the previous
+ * generation, whose buffers are freed once no reader uses them any more.
  * 
  * @author Markus HAENSE
  */
 public class JarFileProvider implements IDataProvider {
 	public static final String PROTOCOL_FILE = "jar";
 
-	public static String WORDNET_PATH = "WordNet-3.0/dict/";
+	/**
+	 * The directory of the Wordnet files in the JAR file that new providers
+	 * are created with, unless {@link #setWordnetPath(String)} is called.
+	 */
+	public static final String WORDNET_PATH = "WordNet-3.0/dict/";
 
 	private URL _jUrl = null;
-	private IVersion _jVersion = null;
+	private File _jJar = null;
+	private String _jWordnetPath = WORDNET_PATH;
+	private BufferRegistry _jBufferRegistry = BufferRegistry.getDefault();
+	private volatile IVersion _jVersion = null;
 	private Set<IContentType<?>> _jSearchTypes = null;
-	private Map<IContentType<?>, IDataSource<?>> _jFileMap = null;
-	private Collection<IDataSource<?>> _jSources = null;
+	private volatile Generation _jGeneration = null;
+	private boolean _jMemoryMapped = false;
+	private boolean _jLineIndexed = false;
+	private boolean _jHashedIndex = false;
+	private boolean _jHashedExceptions = false;
+	private boolean _jCompressed = false;
+	private boolean _jLazyLoading = false;
+	private boolean _jParallelLoading = false;
+	private Executor _jLoadExecutor = null;
+	private IDataSourceMetrics _jMetrics = null;
 
 	/**
 	 * Constructs the file provider pointing to the resource indicated by the
@@ -103,17 +142,359 @@ public class JarFileProvider implements IDataProvider {
 	// no way to safely cast; must rely on registerSource method to assure
 	// compliance
 	public <T> IDataSource<T> getSource(IContentType<T> type) {
-		checkOpen();
-		return (IDataSource<T>) _jFileMap.get(type);
+		for (;;) {
+			Generation generation = getOpenGeneration();
+			IDataSource<?> src = generation._jFileMap.get(type);
+			if (src == null && generation._jEntryMap != null) {
+				src = loadLazily(generation, type);
+				if (src == null && generation.isRetired()) {
+					// replaced while loading, ask the current generation
+					continue;
+				}
+			}
+			return (IDataSource<T>) src;
+		}
 	}
 
 	@Override
 	public Collection<IDataSource<?>> getSources() {
-		checkOpen();
-		if (_jSources == null) {
-			_jSources = Collections.unmodifiableCollection(_jFileMap.values());
+		for (;;) {
+			Generation generation = getOpenGeneration();
+			if (generation._jEntryMap != null) {
+				for (IContentType<?> type : generation._jEntryMap.keySet()) {
+					if (!generation._jFileMap.containsKey(type)) {
+						loadLazily(generation, type);
+					}
+				}
+				if (generation.isRetired()) {
+					continue;
+				}
+			}
+			if (generation._jSources == null) {
+				generation._jSources = Collections
+						.unmodifiableCollection(generation._jFileMap.values());
+			}
+			return generation._jSources;
+		}
+	}
+
+	/**
+	 * Returns the generation of data sources the provider currently serves,
+	 * or <code>null</code> if the provider is not open. A reader should take
+	 * it once and use it throughout an operation.
+	 */
+	protected Generation getGeneration() {
+		return _jGeneration;
+	}
+
+	private Generation getOpenGeneration() {
+		Generation generation = _jGeneration;
+		if (generation == null) {
+			throw new DataProviderClosedException();
+		}
+		return generation;
+	}
+
+	/**
+	 * Returns the JAR file the Wordnet files are read from, or
+	 * <code>null</code> if they are read from the JAR file this class was
+	 * loaded from.
+	 */
+	public File getJar() {
+		return _jJar;
+	}
+
+	/**
+	 * Sets the JAR file the Wordnet files are read from when the provider is
+	 * next opened. If <code>null</code>, they are read from the JAR file this
+	 * class was loaded from.
+	 */
+	public void setJar(File jar) {
+		_jJar = jar;
+	}
+
+	/**
+	 * Returns the directory of the Wordnet files in the JAR file.
+	 */
+	public String getWordnetPath() {
+		return _jWordnetPath;
+	}
+
+	/**
+	 * Sets the directory of the Wordnet files in the JAR file, which takes
+	 * effect when the provider is next opened. It defaults to
+	 * {@link #WORDNET_PATH}.
+	 */
+	public void setWordnetPath(String wordnetPath) {
+		if (wordnetPath == null)
+			throw new NullPointerException();
+		if (wordnetPath.length() > 0 && !wordnetPath.endsWith("/"))
+			wordnetPath += "/";
+		_jWordnetPath = wordnetPath;
+	}
+
+	/**
+	 * Returns the registry the buffers of the files are shared through, or
+	 * <code>null</code> if each provider loads its own.
+	 */
+	public BufferRegistry getBufferRegistry() {
+		return _jBufferRegistry;
+	}
+
+	/**
+	 * Sets the registry the buffers of the files are shared through when the
+	 * provider is next opened. If <code>null</code>, the provider loads its
+	 * own copy of each file.
+	 */
+	public void setBufferRegistry(BufferRegistry bufferRegistry) {
+		_jBufferRegistry = bufferRegistry;
+	}
+
+	/**
+	 * Returns the content types this provider loads.
+	 */
+	public Set<IContentType<?>> getSearchTypes() {
+		return Collections.unmodifiableSet(_jSearchTypes);
+	}
+
+	/**
+	 * Returns <code>true</code> if the data sources are backed by buffers
+	 * memory-mapped from the JAR file rather than by copies on the heap.
+	 */
+	public boolean isMemoryMapped() {
+		return _jMemoryMapped;
+	}
+
+	/**
+	 * Sets whether the data sources should be memory-mapped from the JAR file
+	 * when the provider is next opened. STORED entries are mapped directly,
+	 * compressed entries are inflated into a direct buffer off the heap.
+	 */
+	public void setMemoryMapped(boolean memoryMapped) {
+		_jMemoryMapped = memoryMapped;
+	}
+
+	/**
+	 * Returns <code>true</code> if the binary search data sources build a
+	 * table of line start offsets when loaded.
+	 */
+	public boolean isLineIndexed() {
+		return _jLineIndexed;
+	}
+
+	/**
+	 * Sets whether the binary search data sources should build a table of
+	 * line start offsets when the provider is next opened. This costs four
+	 * bytes per line but makes every search probe decode exactly one line.
+	 */
+	public void setLineIndexed(boolean lineIndexed) {
+		_jLineIndexed = lineIndexed;
+	}
+
+	/**
+	 * Returns <code>true</code> if data sources are only loaded the first time
+	 * they are requested.
+	 */
+	public boolean isLazyLoading() {
+		return _jLazyLoading;
+	}
+
+	/**
+	 * Sets whether the provider should only scan the directory of the JAR file
+	 * when it is next opened, and load each data source the first time it is
+	 * requested through {@link #getSource(IContentType)}. In this mode
+	 * {@link #getVersion()} only considers the sources loaded so far.
+	 */
+	public void setLazyLoading(boolean lazyLoading) {
+		_jLazyLoading = lazyLoading;
+	}
+
+	/**
+	 * Returns <code>true</code> if the data sources are loaded concurrently
+	 * when the provider is opened.
+	 */
+	public boolean isParallelLoading() {
+		return _jParallelLoading;
+	}
+
+	/**
+	 * Sets whether the data sources should be loaded and validated
+	 * concurrently when the provider is next opened. The opening still fails
+	 * as a whole if any of the sources cannot be loaded. Has no effect in
+	 * lazy loading mode.
+	 */
+	public void setParallelLoading(boolean parallelLoading) {
+		_jParallelLoading = parallelLoading;
+	}
+
+	/**
+	 * Returns the executor used for parallel loading, or <code>null</code> if
+	 * a temporary one is created for each opening.
+	 */
+	public Executor getLoadExecutor() {
+		return _jLoadExecutor;
+	}
+
+	/**
+	 * Sets the executor used for parallel loading. If <code>null</code>, a
+	 * temporary executor is created for each opening; see
+	 * {@link #createLoadExecutor(int)}.
+	 */
+	public void setLoadExecutor(Executor executor) {
+		_jLoadExecutor = executor;
+	}
+
+	/**
+	 * Returns <code>true</code> if the index files answer exact lemma lookups
+	 * through a hash table.
+	 */
+	public boolean isHashedIndex() {
+		return _jHashedIndex;
+	}
+
+	/**
+	 * Sets whether the index files should be served by a
+	 * {@link HashedIndexWordnetJarFile} when the provider is next opened. This
+	 * makes lemma lookups constant time, at the cost of building a hash table
+	 * and a line offset table for each index file.
+	 */
+	public void setHashedIndex(boolean hashedIndex) {
+		_jHashedIndex = hashedIndex;
+	}
+
+	/**
+	 * Returns <code>true</code> if the exception files answer lookups of
+	 * surface forms through a hash table.
+	 */
+	public boolean isHashedExceptions() {
+		return _jHashedExceptions;
+	}
+
+	/**
+	 * Sets whether the exception files should be served by an
+	 * {@link ExceptionWordnetJarFile} when the provider is next opened. This
+	 * makes lookups of inflected forms constant time, at the cost of decoding
+	 * all forms into a character array and building a hash table for each
+	 * exception file.
+	 */
+	public void setHashedExceptions(boolean hashedExceptions) {
+		_jHashedExceptions = hashedExceptions;
+	}
+
+	/**
+	 * Returns <code>true</code> if the data sources keep their files
+	 * compressed in memory.
+	 */
+	public boolean isCompressed() {
+		return _jCompressed;
+	}
+
+	/**
+	 * Sets whether the files should be kept compressed in memory by
+	 * {@link CompressedWordnetJarFile} data sources when the provider is next
+	 * opened. This takes precedence over the hashed index, the hashed
+	 * exceptions and the line index, and it makes memory mapping pointless, as
+	 * the files are copied into compressed blocks on the heap.
+	 */
+	public void setCompressed(boolean compressed) {
+		_jCompressed = compressed;
+	}
+
+	/**
+	 * Returns the metrics the data sources report into, or <code>null</code>
+	 * if nothing is measured.
+	 */
+	public IDataSourceMetrics getMetrics() {
+		return _jMetrics;
+	}
+
+	/**
+	 * Sets the metrics the data sources report into, including the ones that
+	 * are already loaded. If <code>null</code>, nothing is measured.
+	 */
+	public void setMetrics(IDataSourceMetrics metrics) {
+		_jMetrics = metrics;
+		Generation generation = _jGeneration;
+		if (generation != null) {
+			for (IDataSource<?> src : generation._jFileMap.values()) {
+				if (src instanceof WordnetJarFile<?>)
+					((WordnetJarFile<?>) src).setMetrics(metrics);
+			}
 		}
-		return _jSources;
+	}
+
+	/**
+	 * Returns a copy of the measurements of each content type, or
+	 * <code>null</code> if the metrics are not a {@link DataSourceMetrics}.
+	 */
+	public Map<IContentType<?>, DataSourceMetrics.Snapshot> getMetricsSnapshot() {
+		if (_jMetrics instanceof DataSourceMetrics)
+			return ((DataSourceMetrics) _jMetrics).getSnapshot();
+		return null;
+	}
+
+	/**
+	 * Returns the tag counts of the senses in the {@code cntlist.rev} file of
+	 * the Wordnet directory, or <code>null</code> if there is no such file.
+	 * They are loaded when they are first requested after the provider has
+	 * been opened or reloaded.
+	 */
+	public SenseFrequencyIndex getSenseFrequencyIndex() {
+		for (;;) {
+			Generation generation = getOpenGeneration();
+			SenseFrequencyIndex index = generation._jSenseFrequencies;
+			if (index != null) {
+				return index;
+			}
+			synchronized (generation) {
+				if (generation.isRetired()) {
+					// its files are closed, ask the current generation
+					continue;
+				}
+				index = generation._jSenseFrequencies;
+				if (index == null) {
+					try {
+						InputStream is = openResource(generation,
+								SenseFrequencyIndex.FILE_NAME);
+						if (is == null) {
+							return null;
+						}
+						index = SenseFrequencyIndex.load(is);
+					} catch (IOException e) {
+						throw new IllegalStateException("Unable to load "
+								+ SenseFrequencyIndex.FILE_NAME, e);
+					}
+					generation._jSenseFrequencies = index;
+				}
+				return index;
+			}
+		}
+	}
+
+	/**
+	 * Opens the specified file of the Wordnet directory of the generation
+	 * that is not a data source, or returns <code>null</code> if there is no
+	 * such file.
+	 */
+	protected InputStream openResource(Generation generation, String name)
+			throws IOException {
+		final JarFile jarFile = new JarFile(generation.getJar());
+		JarEntry entry = jarFile.getJarEntry(generation.getWordnetPath()
+				+ name);
+		if (entry == null) {
+			jarFile.close();
+			return null;
+		}
+		return new FilterInputStream(jarFile.getInputStream(entry)) {
+			@Override
+			public void close() throws IOException {
+				try {
+					super.close();
+				} finally {
+					jarFile.close();
+				}
+			}
+		};
 	}
 
 	protected void checkOpen() {
@@ -125,15 +506,22 @@ public class JarFileProvider implements IDataProvider {
 	/**
 	 * Translates the source URL into a java {@code File} object for access to
 	 * the JAR file. The URL must be in a UTF-8 compatible format as specified
-	 * in {@link java.net.URLDecoder}
+	 * in {@link java.net.URLDecoder}. Returns the JAR file set by
+	 * {@link #setJar(File)} if there is one.
 	 */
 	public File getDirectoryHandle() throws URISyntaxException {
+		if (_jJar != null) {
+			return _jJar;
+		}
 		File moduleFile = new File(JarFileProvider.class.getProtectionDomain()
 				.getCodeSource().getLocation().toURI());
 		return moduleFile;
 	}
 
 	/**
+	 * Loads the data sources; if the provider is already open, they replace
+	 * the current ones as in {@link #reload()}.
+	 * 
 	 * @see edu.mit.jwi.data.IDataProvider#open()
 	 * @throws IOException
 	 *             if the dictionary directory does not exist or the directory
@@ -141,66 +529,373 @@ public class JarFileProvider implements IDataProvider {
 	 */
 	@Override
 	public void open() throws IOException {
-		File directory = null;
+		Generation previous = swap(loadGeneration(), false);
+		if (previous != null) {
+			previous.retire();
+		}
+	}
+
+	/**
+	 * Loads the data sources anew, e.g. after a new build of the dictionary
+	 * has been rolled out to the JAR file, and swaps them in atomically. The
+	 * current sources keep serving while the new ones are loaded, and the
+	 * options set since the last opening take effect. Readers are never
+	 * blocked: lookups and iterators in progress finish on the sources they
+	 * started with, and the buffers of the previous sources are freed once
+	 * no reader uses them any more. If loading fails, the current sources
+	 * are kept.
+	 * 
+	 * @throws DataProviderClosedException
+	 *             if the provider is not open, or is closed while reloading
+	 * @throws IOException
+	 *             if the new sources cannot be loaded
+	 */
+	public void reload() throws IOException {
+		checkOpen();
+		Generation generation = loadGeneration();
+		Generation previous = swap(generation, true);
+		if (previous == null) {
+			generation.retire();
+			throw new DataProviderClosedException();
+		}
+		previous.retire();
+	}
+
+	/**
+	 * Makes the generation the current one and returns the previous one. If
+	 * only a reload is allowed and the provider is not open, nothing changes
+	 * and <code>null</code> is returned.
+	 */
+	private Generation swap(Generation generation, boolean reload) {
+		IVersion version = null;
+		if (generation != null && generation._jEntryMap == null) {
+			version = determineVersion(generation);
+			generation._jVersion = version;
+		}
+		synchronized (this) {
+			Generation previous = _jGeneration;
+			if (reload && previous == null) {
+				return null;
+			}
+			if (generation != null) {
+				_jVersion = version;
+			}
+			_jGeneration = generation;
+			return previous;
+		}
+	}
+
+	/**
+	 * Finds the Wordnet files in the JAR file and loads the data sources,
+	 * unless they are loaded lazily, without changing the sources the
+	 * provider currently serves. Subclasses which find and load the files
+	 * themselves override this method.
+	 * 
+	 * @throws IOException
+	 *             if the dictionary directory does not exist or the directory
+	 *             is empty, or there is a problem with a file
+	 */
+	protected Generation loadGeneration() throws IOException {
+		File directory;
 		try {
 			directory = getDirectoryHandle();
-
+		} catch (URISyntaxException e) {
+			throw new IOException(e);
+		}
+		Generation generation = new Generation(directory, _jWordnetPath,
+				_jBufferRegistry);
+		String wordnetPath = generation.getWordnetPath();
+		JarFile jarFile = null;
+		boolean loaded = false;
+		try {
 			// Find the WordNet files in JAR file
-			List<InputStream> inputStreamList = new ArrayList<InputStream>();
+			List<JarEntry> entryList = new ArrayList<JarEntry>();
 			List<String> nameList = new ArrayList<String>();
-			JarFile jarFile = new JarFile(directory);
+			jarFile = new JarFile(directory);
 			Enumeration<JarEntry> enums = jarFile.entries();
 
 			while (enums.hasMoreElements()) {
 				JarEntry entry = enums.nextElement();
 				if (!entry.isDirectory()
-						&& entry.getName().startsWith(WORDNET_PATH)) {
-
-					InputStream is = JarUtil
-							.getResourceFileInputStreamInJarFile(
-									JarFileProvider.class,
-									System.getProperty("file.separator")
-											+ entry.getName());
-
-					nameList.add(entry.getName().replaceAll(WORDNET_PATH, ""));
-					inputStreamList.add(is);
+						&& entry.getName().startsWith(wordnetPath)) {
+					nameList.add(entry.getName().substring(
+							wordnetPath.length()));
+					entryList.add(entry);
 				}
 			}
 
-			if (inputStreamList.size() == 0) {
+			if (entryList.size() == 0) {
 				throw new IOException("No files found in " + directory);
 			}
 
-			_jFileMap = new HashMap<IContentType<?>, IDataSource<?>>();
+			Map<IContentType<?>, JarEntry> entryMap = new HashMap<IContentType<?>, JarEntry>();
 
 			for (IContentType<?> type : _jSearchTypes) {
-				IDataType<?> fileType = type.getDataType();
-
-				Set<String> typePatterns = fileType.getResourceNameHints();
-
-				Set<String> posPatterns = type.getPOS() != null ? type.getPOS()
-						.getResourceNameHints() : Collections
-						.<String> emptySet();
-
 				int count = 0;
-				for (Iterator<InputStream> i = inputStreamList.iterator(); i
-						.hasNext();) {
-					InputStream is = i.next();
+				for (Iterator<JarEntry> i = entryList.iterator(); i.hasNext();) {
+					JarEntry entry = i.next();
 					String name = nameList.get(count++);
-					if (containsOneOf(name, typePatterns)
-							& containsOneOf(name, posPatterns)) {
-						_jFileMap.put(type, createDataSource(is, name, type));
+					if (matches(name, type)) {
+						entryMap.put(type, entry);
 						break;
 					}
 				}
 			}
 
-		} catch (URISyntaxException e) {
-			e.printStackTrace();
+			if (_jLazyLoading) {
+				// keep the JAR file open to load the sources on demand
+				generation._jJarFile = jarFile;
+				jarFile = null;
+				generation._jEntryMap = entryMap;
+				generation._jFileMap = new ConcurrentHashMap<IContentType<?>, IDataSource<?>>();
+				loaded = true;
+				return generation;
+			}
+
+			Map<IContentType<?>, IDataSource<?>> fileMap;
+			if (_jParallelLoading) {
+				fileMap = loadSourcesInParallel(generation, jarFile, entryMap);
+			} else {
+				fileMap = new HashMap<IContentType<?>, IDataSource<?>>();
+				for (Map.Entry<IContentType<?>, JarEntry> e : entryMap
+						.entrySet()) {
+					fileMap.put(e.getKey(), loadSource(generation, jarFile, e
+							.getKey(), e.getValue()));
+				}
+			}
+
+			generation.setSources(fileMap);
+			loaded = true;
+			return generation;
+		} finally {
+			if (jarFile != null) {
+				jarFile.close();
+			}
+			if (!loaded) {
+				generation.retire();
+			}
+		}
+	}
+
+	/**
+	 * Loads the data source of the specified type of a lazily loading
+	 * generation on first request. Loading is synchronized on the JAR entry,
+	 * so concurrent first calls for the same type load it only once while
+	 * other types can load in parallel. Returns <code>null</code> if the
+	 * generation has been retired before the source was loaded.
+	 */
+	private IDataSource<?> loadLazily(Generation generation,
+			IContentType<?> type) {
+		JarEntry entry = generation._jEntryMap.get(type);
+		if (entry == null) {
+			return null;
+		}
+
+		synchronized (entry) {
+			if (generation.isRetired()) {
+				return null;
+			}
+			Map<IContentType<?>, IDataSource<?>> fileMap = generation._jFileMap;
+			IDataSource<?> src = fileMap.get(type);
+			if (src == null) {
+				try {
+					src = loadSource(generation, generation._jJarFile, type,
+							entry);
+				} catch (IOException e) {
+					throw new IllegalStateException("Unable to load "
+							+ entry.getName(), e);
+				}
+				fileMap.put(type, src);
+			}
+			return src;
+		}
+	}
+
+	/**
+	 * Loads all data sources concurrently and waits for them. If any of them
+	 * fails, the others are cancelled and the failure is rethrown.
+	 */
+	protected Map<IContentType<?>, IDataSource<?>> loadSourcesInParallel(
+			final Generation generation, final JarFile jarFile,
+			Map<IContentType<?>, JarEntry> entryMap) throws IOException {
+		Map<IContentType<?>, Callable<IDataSource<?>>> loaders = new HashMap<IContentType<?>, Callable<IDataSource<?>>>();
+		for (final Map.Entry<IContentType<?>, JarEntry> e : entryMap.entrySet()) {
+			loaders.put(e.getKey(), new Callable<IDataSource<?>>() {
+				public IDataSource<?> call() throws IOException {
+					return loadSource(generation, jarFile, e.getKey(), e
+							.getValue());
+				}
+			});
+		}
+		return loadInParallel(loaders, generation.getJar());
+	}
+
+	/**
+	 * Runs the loaders of the data sources concurrently on the load executor
+	 * and waits for them. If any of them fails, the others are cancelled and
+	 * the failure is rethrown, but only after all of them have stopped, so
+	 * that none is still reading the files or acquiring buffers when the
+	 * caller releases them.
+	 * 
+	 * @param origin
+	 *            where the sources are loaded from, for error messages
+	 */
+	protected Map<IContentType<?>, IDataSource<?>> loadInParallel(
+			Map<IContentType<?>, Callable<IDataSource<?>>> loaders,
+			Object origin) throws IOException {
+		Executor executor = _jLoadExecutor;
+		ExecutorService ownExecutor = null;
+		if (executor == null) {
+			ownExecutor = createLoadExecutor(loaders.size());
+			executor = ownExecutor;
+		}
+
+		Map<IContentType<?>, FutureTask<IDataSource<?>>> tasks = new HashMap<IContentType<?>, FutureTask<IDataSource<?>>>();
+		// counts down when a task has run, which a cancelled one still does
+		final CountDownLatch finished = new CountDownLatch(loaders.size());
+		int submitted = 0;
+		try {
+			for (Map.Entry<IContentType<?>, Callable<IDataSource<?>>> e : loaders
+					.entrySet()) {
+				FutureTask<IDataSource<?>> task = new FutureTask<IDataSource<?>>(
+						e.getValue()) {
+					@Override
+					public void run() {
+						try {
+							super.run();
+						} finally {
+							finished.countDown();
+						}
+					}
+				};
+				tasks.put(e.getKey(), task);
+				executor.execute(task);
+				submitted++;
+			}
+
+			Map<IContentType<?>, IDataSource<?>> fileMap = new HashMap<IContentType<?>, IDataSource<?>>();
+			for (Map.Entry<IContentType<?>, FutureTask<IDataSource<?>>> e : tasks
+					.entrySet()) {
+				fileMap.put(e.getKey(), e.getValue().get());
+			}
+			return fileMap;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while loading "
+					+ origin);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException)
+				throw (IOException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw new IOException(cause);
+		} finally {
+			for (FutureTask<IDataSource<?>> task : tasks.values()) {
+				task.cancel(true);
+			}
+			if (ownExecutor != null) {
+				ownExecutor.shutdown();
+			}
+			for (int i = submitted; i < loaders.size(); i++) {
+				finished.countDown();
+			}
+			awaitUninterruptibly(finished);
+		}
+	}
+
+	/**
+	 * Waits for the latch, keeping the interrupt status of the thread.
+	 */
+	private static void awaitUninterruptibly(CountDownLatch latch) {
+		boolean interrupted = false;
+		for (;;) {
+			try {
+				latch.await();
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Creates the temporary executor used for parallel loading when none has
+	 * been set. Uses virtual threads if the platform supports them, and a pool
+	 * of at most one thread per processor otherwise.
+	 */
+	protected ExecutorService createLoadExecutor(int tasks) {
+		try {
+			Method factory = Executors.class
+					.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) factory.invoke(null);
+		} catch (Exception e) {
+			// no virtual threads on this platform
+		}
+		return Executors.newFixedThreadPool(Math.max(1, Math.min(tasks,
+				Runtime.getRuntime().availableProcessors())));
+	}
+
+	/**
+	 * Loads the content of a JAR entry and creates the data source for it,
+	 * holding the buffer on behalf of the generation.
+	 */
+	protected <T> IDataSource<T> loadSource(Generation generation,
+			final JarFile jarFile, IContentType<T> type, final JarEntry entry)
+			throws IOException {
+		final File jar = generation.getJar();
+		String name = entry.getName().substring(
+				entry.getName().lastIndexOf('/') + 1);
+		BufferRegistry.Key key = entry.getSize() < 0 || entry.getCrc() < 0 ? null
+				: new BufferRegistry.Key(name, entry.getSize(), entry.getCrc(),
+						_jMemoryMapped ? BufferRegistry.Mode.MAPPED
+								: BufferRegistry.Mode.HEAP);
+		ByteBuffer buffer = acquireBuffer(generation, key,
+				new Callable<ByteBuffer>() {
+					public ByteBuffer call() throws IOException {
+						return loadBuffer(jar, jarFile, entry);
+					}
+				});
+		IDataSource<T> src = createDataSource(buffer, name, type);
+		if (src instanceof WordnetJarFile<?>)
+			((WordnetJarFile<?>) src).setMetrics(_jMetrics);
+		return src;
+	}
+
+	/**
+	 * Returns the buffer holding the content identified by the key from the
+	 * buffer registry of the generation, which loads it with the loader if it
+	 * has none, and keeps a reference to it until the generation is retired.
+	 * The content is loaded without the registry if there is none, if the key
+	 * is <code>null</code>, or if the files are compressed, as compressed
+	 * sources do not keep the buffer.
+	 */
+	protected ByteBuffer acquireBuffer(Generation generation,
+			BufferRegistry.Key key, Callable<ByteBuffer> loader)
+			throws IOException {
+		BufferRegistry.Lease lease = generation._jLease;
+		if (lease == null || key == null || _jCompressed) {
+			return BufferRegistry.load(loader);
+		}
+		return lease.acquire(key, loader);
+	}
+
+	/**
+	 * Loads the content of a JAR entry, either by memory-mapping it or by
+	 * copying it onto the heap, depending on {@link #isMemoryMapped()}.
+	 */
+	protected ByteBuffer loadBuffer(File jar, JarFile jarFile, JarEntry entry)
+			throws IOException {
+		if (_jMemoryMapped) {
+			return JarUtil.mapResourceFileInJarFile(jar, jarFile, entry);
 		}
 
-		_jVersion = determineVersion();
-		return;
+		return WordnetJarFile.readBuffer(jarFile.getInputStream(entry));
 	}
 
 	/**
@@ -213,10 +908,20 @@ public class JarFileProvider implements IDataProvider {
 	 */
 	protected <T> IDataSource<T> createDataSource(InputStream is, String name,
 			IContentType<T> type) throws IOException {
+		return createDataSource(WordnetJarFile.readBuffer(is), name, type);
+	}
+
+	/**
+	 * Allows subclasses to change the data source implementation. Both
+	 * implementations share the specified buffer, so the content is loaded
+	 * only once even if direct access has to be abandoned.
+	 */
+	protected <T> IDataSource<T> createDataSource(ByteBuffer buffer,
+			String name, IContentType<T> type) {
 
 		if (type.getDataType() == DataType.DATA) {
-			IDataSource<T> src = new DirectAccessWordnetJarFile<T>(is, name,
-					type);
+			IDataSource<T> src = new DirectAccessWordnetJarFile<T>(buffer,
+					name, type);
 
 			// check to see if direct access works with the file
 			// often people will extract the files incorrectly on windows
@@ -237,7 +942,8 @@ public class JarFileProvider implements IDataProvider {
 			// try to find line by direct access
 			String soughtLine = src.getLine(key);
 			if (soughtLine != null)
-				return src;
+				return _jCompressed ? new CompressedWordnetJarFile<T>(buffer,
+						name, type, true) : src;
 
 			System.err.println(System.currentTimeMillis()
 					+ " - Error on direct access in "
@@ -245,12 +951,29 @@ public class JarFileProvider implements IDataProvider {
 					+ " data file: check CR/LF endings");
 		}
 
-		return new BinarySearchWordnetJarFile<T>(is, name, type);
+		if (_jCompressed) {
+			return new CompressedWordnetJarFile<T>(buffer, name, type, false);
+		}
+
+		if (type.getDataType() == DataType.INDEX && _jHashedIndex) {
+			return new HashedIndexWordnetJarFile<T>(buffer, name, type);
+		}
+
+		if (type.getDataType() == DataType.EXCEPTION && _jHashedExceptions) {
+			return new ExceptionWordnetJarFile<T>(buffer, name, type);
+		}
+
+		return new BinarySearchWordnetJarFile<T>(buffer, name, type,
+				_jLineIndexed);
 	}
 
-	protected IVersion determineVersion() {
+	/**
+	 * Returns the version shared by the data sources of the generation, or
+	 * <code>null</code> if they have none or differ.
+	 */
+	protected IVersion determineVersion(Generation generation) {
 		IVersion ver = null;
-		for (IDataSource<?> dataSrc : _jFileMap.values()) {
+		for (IDataSource<?> dataSrc : generation._jFileMap.values()) {
 
 			// if no version to set, ignore
 			if (dataSrc.getVersion() == null) {
@@ -272,6 +995,19 @@ public class JarFileProvider implements IDataProvider {
 		return ver;
 	}
 
+	/**
+	 * Checks whether the specified file name matches the resource name hints
+	 * of the data type and, if it has one, the part of speech of the content
+	 * type. Used by every provider to pick the file for a content type.
+	 */
+	static boolean matches(String name, IContentType<?> type) {
+		Set<String> typePatterns = type.getDataType().getResourceNameHints();
+		Set<String> posPatterns = type.getPOS() != null ? type.getPOS()
+				.getResourceNameHints() : Collections.<String> emptySet();
+		return containsOneOf(name, typePatterns)
+				& containsOneOf(name, posPatterns);
+	}
+
 	/**
 	 * Checks to see if one of the string patterns specified in the set of
 	 * strings is found in the specified target string. If the pattern set is
@@ -279,7 +1015,7 @@ public class JarFileProvider implements IDataProvider {
 	 * target string, returns <code>true</code>. Otherwise, returns
 	 * <code>false</code>.
 	 */
-	protected boolean containsOneOf(String target, Set<String> patterns) {
+	protected static boolean containsOneOf(String target, Set<String> patterns) {
 		if (patterns == null || patterns.size() == 0) {
 			return true;
 		}
@@ -298,6 +1034,10 @@ public class JarFileProvider implements IDataProvider {
 	 */
 	@Override
 	public IVersion getVersion() {
+		Generation generation = _jGeneration;
+		if (generation != null && generation._jEntryMap != null) {
+			return determineVersion(generation);
+		}
 		return _jVersion;
 	}
 
@@ -308,17 +1048,22 @@ public class JarFileProvider implements IDataProvider {
 	 */
 	@Override
 	public boolean isOpen() {
-		return _jFileMap != null;
+		return _jGeneration != null;
 	}
 
 	/**
-	 * (non-Javadoc)
+	 * Retires the current generation of data sources. Lookups and iterators
+	 * in progress finish on it; new requests fail with a
+	 * {@link DataProviderClosedException}.
 	 * 
 	 * @see edu.mit.jwi.data.IDataProvider#close()
 	 */
 	@Override
 	public void close() {
-		_jFileMap = null;
+		Generation previous = swap(null, false);
+		if (previous != null) {
+			previous.retire();
+		}
 	}
 
 	/**
@@ -350,4 +1095,121 @@ public class JarFileProvider implements IDataProvider {
 			e.printStackTrace();
 		}
 	}
+
+	/**
+	 * The data sources loaded by one opening or reloading of a provider,
+	 * together with what they were loaded from and the references to their
+	 * buffers in the buffer registry. A generation is immutable once the
+	 * provider serves it, except for the sources it loads lazily.
+	 * <p>
+	 * A generation is retired when it is replaced or the provider is closed.
+	 * Its references to the buffers are released and its files closed, but
+	 * the data sources stay usable for the readers which still hold them, as
+	 * their buffers are only freed when the sources become unreachable.
+	 */
+	protected static class Generation {
+		private final File _jJar;
+		private final String _jWordnetPath;
+		private final BufferRegistry.Lease _jLease;
+		private final List<Closeable> _jResources = new ArrayList<Closeable>();
+		private Map<IContentType<?>, IDataSource<?>> _jFileMap = null;
+		private Collection<IDataSource<?>> _jSources = null;
+		private IVersion _jVersion = null;
+		private volatile SenseFrequencyIndex _jSenseFrequencies = null;
+		private Map<IContentType<?>, JarEntry> _jEntryMap = null;
+		private JarFile _jJarFile = null;
+		private volatile boolean _jRetired = false;
+
+		/**
+		 * @param jar
+		 *            the JAR file the sources are loaded from, or
+		 *            <code>null</code> if they are not loaded from one
+		 * @param wordnetPath
+		 *            the directory of the Wordnet files
+		 * @param registry
+		 *            the registry the buffers are shared through, or
+		 *            <code>null</code> if there is none
+		 */
+		protected Generation(File jar, String wordnetPath,
+				BufferRegistry registry) {
+			_jJar = jar;
+			_jWordnetPath = wordnetPath;
+			_jLease = registry == null ? null : registry.newLease();
+		}
+
+		public File getJar() {
+			return _jJar;
+		}
+
+		public String getWordnetPath() {
+			return _jWordnetPath;
+		}
+
+		/**
+		 * Returns <code>true</code> if the generation has been replaced or its
+		 * provider closed.
+		 */
+		public boolean isRetired() {
+			return _jRetired;
+		}
+
+		/**
+		 * Sets the data sources of the generation, for subclasses of the
+		 * provider which find and load the files themselves.
+		 */
+		protected void setSources(Map<IContentType<?>, IDataSource<?>> fileMap) {
+			_jEntryMap = null;
+			_jFileMap = fileMap;
+		}
+
+		/**
+		 * Adds a resource the sources are loaded from, e.g. a file system,
+		 * which is closed when the generation is retired. The resources are
+		 * closed in the reverse order in which they were added.
+		 */
+		protected void addResource(Closeable resource) {
+			synchronized (_jResources) {
+				_jResources.add(resource);
+			}
+		}
+
+		/**
+		 * Retires the generation: waits for lazy loads in progress, then
+		 * releases the buffers and closes the files and resources.
+		 */
+		protected void retire() {
+			_jRetired = true;
+			synchronized (this) {
+				// loads of the sense frequencies starting from now see the
+				// generation retired
+			}
+			Map<IContentType<?>, JarEntry> entryMap = _jEntryMap;
+			if (entryMap != null) {
+				for (JarEntry entry : entryMap.values()) {
+					synchronized (entry) {
+						// loads starting from now see the generation retired
+					}
+				}
+			}
+
+			if (_jLease != null) {
+				_jLease.close();
+			}
+			List<Closeable> resources = new ArrayList<Closeable>();
+			if (_jJarFile != null) {
+				resources.add(_jJarFile);
+			}
+			synchronized (_jResources) {
+				resources.addAll(_jResources);
+				_jResources.clear();
+			}
+			for (int i = resources.size() - 1; i >= 0; i--) {
+				try {
+					resources.get(i).close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
 }
\ No newline at end of file
@@ -4,12 +4,19 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
 import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.List;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
+import java.util.zip.ZipEntry;
 
 /**
  * Class gathering utilities related to JAR files.
@@ -17,6 +24,14 @@ import java.util.jar.JarFile;
  * @author Markus HAENSE
  */
 public class JarUtil {
+	private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+	private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+	private static final int END_HEADER_SIGNATURE = 0x06054b50;
+	private static final int LOCAL_HEADER_SIZE = 30;
+	private static final int CENTRAL_HEADER_SIZE = 46;
+	private static final int END_HEADER_SIZE = 22;
+	private static final int MAX_COMMENT_SIZE = 0xFFFF;
+
 	public static <T> String readTextFromResourceFileInJarFile(Class<T> type,
 			String path, boolean skipComments) throws IOException {
 		// Reading resources of JAR file
@@ -45,6 +60,125 @@ public class JarUtil {
 		return type.getResourceAsStream(path);
 	}
 
+	/**
+	 * Returns the content of a JAR entry without copying it onto the heap.
+	 * STORED (uncompressed) entries are memory-mapped directly from the JAR
+	 * file; compressed entries are inflated into a single direct buffer sized
+	 * from {@link JarEntry#getSize()}. The returned buffer is positioned at
+	 * zero and remains valid after the JAR file is closed.
+	 */
+	public static ByteBuffer mapResourceFileInJarFile(File jar,
+			JarFile jarFile, JarEntry entry) throws IOException {
+		if (entry.getMethod() == ZipEntry.STORED && entry.getSize() > -1) {
+			RandomAccessFile raf = new RandomAccessFile(jar, "r");
+			try {
+				FileChannel channel = raf.getChannel();
+				long offset = getEntryDataOffset(channel, entry.getName());
+				if (offset > -1) {
+					return channel.map(FileChannel.MapMode.READ_ONLY, offset,
+							entry.getSize());
+				}
+			} finally {
+				raf.close();
+			}
+		}
+
+		InputStream is = jarFile.getInputStream(entry);
+		try {
+			long size = entry.getSize();
+			if (size < 0 || size > Integer.MAX_VALUE) {
+				// size unknown, we cannot pre-size the buffer
+				return WordnetJarFile.readBuffer(is);
+			}
+			ByteBuffer buffer = ByteBuffer.allocateDirect((int) size);
+			ReadableByteChannel in = Channels.newChannel(is);
+			while (buffer.hasRemaining() && in.read(buffer) > -1)
+				;
+			buffer.flip();
+			return buffer;
+		} finally {
+			is.close();
+		}
+	}
+
+	/**
+	 * Locates the first byte of the data of the named entry by walking the
+	 * central directory of the ZIP file, or returns -1 if the entry cannot be
+	 * found or lies beyond the reach of a non ZIP64 archive.
+	 */
+	protected static long getEntryDataOffset(FileChannel channel, String name)
+			throws IOException {
+		long size = channel.size();
+		if (size < END_HEADER_SIZE)
+			return -1;
+
+		// find the end of central directory record, which is followed by
+		// an optional comment
+		int tailSize = (int) Math.min(size, END_HEADER_SIZE + MAX_COMMENT_SIZE);
+		ByteBuffer tail = read(channel, size - tailSize, tailSize);
+		int end = -1;
+		for (int i = tailSize - END_HEADER_SIZE; i >= 0; i--) {
+			if (tail.getInt(i) == END_HEADER_SIGNATURE) {
+				end = i;
+				break;
+			}
+		}
+		if (end == -1)
+			return -1;
+
+		long dirSize = tail.getInt(end + 12) & 0xFFFFFFFFL;
+		long dirOffset = tail.getInt(end + 16) & 0xFFFFFFFFL;
+		if (dirOffset + dirSize > size)
+			return -1;
+
+		byte[] target = name.getBytes("UTF-8");
+		ByteBuffer dir = read(channel, dirOffset, (int) dirSize);
+		int pos = 0;
+		while (pos + CENTRAL_HEADER_SIZE <= dirSize
+				&& dir.getInt(pos) == CENTRAL_HEADER_SIGNATURE) {
+			int nameLength = dir.getShort(pos + 28) & 0xFFFF;
+			int extraLength = dir.getShort(pos + 30) & 0xFFFF;
+			int commentLength = dir.getShort(pos + 32) & 0xFFFF;
+			long headerOffset = dir.getInt(pos + 42) & 0xFFFFFFFFL;
+
+			if (nameLength == target.length
+					&& matches(dir, pos + CENTRAL_HEADER_SIZE, target)) {
+				if (headerOffset == 0xFFFFFFFFL)
+					return -1;
+				ByteBuffer header = read(channel, headerOffset,
+						LOCAL_HEADER_SIZE);
+				if (header.getInt(0) != LOCAL_HEADER_SIGNATURE)
+					return -1;
+				return headerOffset + LOCAL_HEADER_SIZE
+						+ (header.getShort(26) & 0xFFFF)
+						+ (header.getShort(28) & 0xFFFF);
+			}
+
+			pos += CENTRAL_HEADER_SIZE + nameLength + extraLength
+					+ commentLength;
+		}
+		return -1;
+	}
+
+	private static boolean matches(ByteBuffer buf, int offset, byte[] target) {
+		for (int i = 0; i < target.length; i++) {
+			if (buf.get(offset + i) != target[i])
+				return false;
+		}
+		return true;
+	}
+
+	private static ByteBuffer read(FileChannel channel, long offset, int length)
+			throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(length);
+		while (buf.hasRemaining()) {
+			if (channel.read(buf, offset + buf.position()) == -1)
+				throw new IOException("Unexpected end of JAR file");
+		}
+		buf.order(ByteOrder.LITTLE_ENDIAN);
+		return buf;
+	}
+
 	public static List<File> listFilesInJarFile(File directory)
 			throws IOException {
 		List<File> files = new ArrayList<File>();
@@ -0,0 +1,321 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import edu.mit.jwi.data.IDataSource;
+import edu.mit.jwi.item.IndexWordID;
+
+/**
+ * Compact trie over the lemmas of an index file, for prefix searches such as
+ * autocompletion. Chains of nodes with a single child are collapsed into one
+ * edge, and all nodes are kept in a few primitive arrays, with the children
+ * of a node stored next to each other in alphabetical order. Completions are
+ * assembled from the edge labels, so no line of the file is decoded after
+ * the trie has been built.
+ * <p>
+ * Each lemma is ranked by its tag sense count, the number of its senses
+ * which are tagged in the semantic concordances, as a measure of how common
+ * it is. Every node knows the highest rank below it, so the most common
+ * completions are found without visiting the whole subtree.
+ * 
+ * @author Markus HAENSE
+ */
+public class LemmaTrie {
+
+	private final char[] fLabels;
+
+	/** Start of the label of the edge leading to each node */
+	private final int[] fLabelStart;
+
+	private final int[] fLabelLength;
+
+	private final int[] fFirstChild;
+
+	private final int[] fChildCount;
+
+	/** Rank of the lemma ending at each node, -1 if none does */
+	private final int[] fRank;
+
+	/** Highest rank of any lemma ending at or below each node */
+	private final int[] fBest;
+
+	private final int fSize;
+
+	/**
+	 * Constructs the trie from the lemmas and their ranks, which need not be
+	 * sorted. Lemmas that occur more than once are only added once.
+	 */
+	public LemmaTrie(String[] lemmas, int[] ranks) {
+		final String[] keys = lemmas;
+		Integer[] order = new Integer[keys.length];
+		for (int i = 0; i < order.length; i++)
+			order[i] = i;
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return keys[a].compareTo(keys[b]);
+			}
+		});
+
+		String[] sorted = new String[keys.length];
+		int[] sortedRanks = new int[keys.length];
+		int size = 0;
+		for (int i = 0; i < order.length; i++) {
+			if (size > 0 && sorted[size - 1].equals(keys[order[i]]))
+				continue;
+			sorted[size] = keys[order[i]];
+			sortedRanks[size++] = ranks[order[i]];
+		}
+		fSize = size;
+
+		// a trie with collapsed edges has less than two nodes per lemma
+		int capacity = 2 * size + 1;
+		fLabelStart = new int[capacity];
+		fLabelLength = new int[capacity];
+		fFirstChild = new int[capacity];
+		fChildCount = new int[capacity];
+		fRank = new int[capacity];
+		fBest = new int[capacity];
+
+		// the range of lemmas below each node and the depth of the node
+		int[] low = new int[capacity];
+		int[] high = new int[capacity];
+		int[] depth = new int[capacity];
+		StringBuilder labels = new StringBuilder();
+
+		// nodes are numbered breadth first, so children are contiguous
+		int count = 1;
+		high[0] = size;
+		for (int node = 0; node < count; node++) {
+			int lo = low[node];
+			int hi = high[node];
+			int d = depth[node];
+			fRank[node] = -1;
+			if (lo < hi && sorted[lo].length() == d)
+				fRank[node] = sortedRanks[lo++];
+
+			fFirstChild[node] = count;
+			while (lo < hi) {
+				char c = sorted[lo].charAt(d);
+				int end = lo + 1;
+				while (end < hi && sorted[end].charAt(d) == c)
+					end++;
+
+				// the lemmas are sorted, so the first and the last one have
+				// the shortest common prefix of the group
+				String first = sorted[lo];
+				String last = sorted[end - 1];
+				int prefix = d + 1;
+				while (prefix < first.length() && prefix < last.length()
+						&& first.charAt(prefix) == last.charAt(prefix))
+					prefix++;
+
+				int child = count++;
+				fLabelStart[child] = labels.length();
+				fLabelLength[child] = prefix - d;
+				labels.append(first, d, prefix);
+				low[child] = lo;
+				high[child] = end;
+				depth[child] = prefix;
+				lo = end;
+			}
+			fChildCount[node] = count - fFirstChild[node];
+		}
+
+		// children come after their parents
+		for (int node = count - 1; node >= 0; node--) {
+			int best = fRank[node];
+			int first = fFirstChild[node];
+			for (int child = first; child < first + fChildCount[node]; child++)
+				best = Math.max(best, fBest[child]);
+			fBest[node] = best;
+		}
+
+		fLabels = new char[labels.length()];
+		labels.getChars(0, fLabels.length, fLabels, 0);
+	}
+
+	/**
+	 * Builds the trie from the lines of an index file.
+	 */
+	public static LemmaTrie build(IDataSource<?> source) {
+		List<String> lemmas = new ArrayList<String>();
+		List<Integer> ranks = new ArrayList<Integer>();
+		Iterator<String> iterator = source.iterator();
+		while (iterator.hasNext()) {
+			String[] fields = iterator.next().split(" ");
+			if (fields.length < 6)
+				continue;
+			// lemma pos synset_cnt p_cnt [ptr_symbol...] sense_cnt
+			// tagsense_cnt synset_offset...
+			int pointers = Integer.parseInt(fields[3]);
+			lemmas.add(fields[0]);
+			ranks.add(Integer.valueOf(fields[5 + pointers]));
+		}
+
+		int[] rankArray = new int[ranks.size()];
+		for (int i = 0; i < rankArray.length; i++)
+			rankArray[i] = ranks.get(i);
+		return new LemmaTrie(lemmas.toArray(new String[lemmas.size()]),
+				rankArray);
+	}
+
+	/**
+	 * Returns the number of lemmas in the trie.
+	 */
+	public int size() {
+		return fSize;
+	}
+
+	/**
+	 * Returns whether the trie contains the specified lemma.
+	 */
+	public boolean contains(String lemma) {
+		String key = normalize(lemma);
+		int[] match = find(key);
+		return match != null && match[1] == fLabelLength[match[0]]
+				&& fRank[match[0]] >= 0;
+	}
+
+	/**
+	 * Returns up to the specified number of lemmas that start with the
+	 * prefix, in alphabetical order. The prefix is normalized like the lemma
+	 * of an {@link IndexWordID}.
+	 */
+	public List<String> complete(String prefix, int limit) {
+		List<String> result = new ArrayList<String>();
+		String key = normalize(prefix);
+		int[] match = find(key);
+		if (match == null || limit <= 0)
+			return result;
+
+		StringBuilder text = new StringBuilder(key);
+		text.append(remainder(match));
+		collect(match[0], text, result, limit);
+		return result;
+	}
+
+	private void collect(int node, StringBuilder text, List<String> result,
+			int limit) {
+		if (fRank[node] >= 0)
+			result.add(text.toString());
+		int first = fFirstChild[node];
+		for (int child = first; child < first + fChildCount[node]
+				&& result.size() < limit; child++) {
+			int length = text.length();
+			text.append(fLabels, fLabelStart[child], fLabelLength[child]);
+			collect(child, text, result, limit);
+			text.setLength(length);
+		}
+	}
+
+	/**
+	 * Returns up to the specified number of lemmas that start with the
+	 * prefix, the most common first. Lemmas that are equally common are
+	 * returned in alphabetical order. The prefix is normalized like the lemma
+	 * of an {@link IndexWordID}.
+	 */
+	public List<String> completeByFrequency(String prefix, int limit) {
+		List<String> result = new ArrayList<String>();
+		String key = normalize(prefix);
+		int[] match = find(key);
+		if (match == null || limit <= 0)
+			return result;
+
+		String text = key + remainder(match);
+		PriorityQueue<Candidate> queue = new PriorityQueue<Candidate>();
+		queue.add(new Candidate(match[0], text, fBest[match[0]], false));
+		while (!queue.isEmpty() && result.size() < limit) {
+			Candidate candidate = queue.poll();
+			if (candidate.lemma) {
+				result.add(candidate.text);
+				continue;
+			}
+			int node = candidate.node;
+			if (fRank[node] >= 0)
+				queue.add(new Candidate(node, candidate.text, fRank[node], true));
+			int first = fFirstChild[node];
+			for (int child = first; child < first + fChildCount[node]; child++) {
+				queue.add(new Candidate(child, candidate.text
+						+ new String(fLabels, fLabelStart[child],
+								fLabelLength[child]), fBest[child], false));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Follows the key from the root. Returns the node on whose edge the key
+	 * ends and the number of characters of the edge's label the key covers,
+	 * or <code>null</code> if no lemma starts with the key.
+	 */
+	private int[] find(String key) {
+		int node = 0;
+		int pos = 0;
+		int consumed = 0;
+		while (pos < key.length()) {
+			int next = -1;
+			int first = fFirstChild[node];
+			for (int child = first; child < first + fChildCount[node]; child++) {
+				if (fLabels[fLabelStart[child]] == key.charAt(pos)) {
+					next = child;
+					break;
+				}
+			}
+			if (next == -1)
+				return null;
+
+			node = next;
+			consumed = 0;
+			int start = fLabelStart[node];
+			int length = fLabelLength[node];
+			while (consumed < length && pos < key.length()) {
+				if (fLabels[start + consumed] != key.charAt(pos))
+					return null;
+				consumed++;
+				pos++;
+			}
+		}
+		return new int[] { node, consumed };
+	}
+
+	/**
+	 * Returns the part of the edge label a match found by
+	 * {@link #find(String)} does not cover.
+	 */
+	private String remainder(int[] match) {
+		int node = match[0];
+		return new String(fLabels, fLabelStart[node] + match[1],
+				fLabelLength[node] - match[1]);
+	}
+
+	/**
+	 * Normalizes a lemma or prefix like the lemmas in the index files.
+	 */
+	static String normalize(String prefix) {
+		return IndexWordID.whitespace.matcher(prefix.toLowerCase()).replaceAll(
+				IndexWordID.underscore);
+	}
+
+	private static class Candidate implements Comparable<Candidate> {
+		final int node;
+		final String text;
+		final int rank;
+		final boolean lemma;
+
+		Candidate(int node, String text, int rank, boolean lemma) {
+			this.node = node;
+			this.text = text;
+			this.rank = rank;
+			this.lemma = lemma;
+		}
+
+		public int compareTo(Candidate o) {
+			if (rank != o.rank)
+				return rank > o.rank ? -1 : 1;
+			return text.compareTo(o.text);
+		}
+	}
+}
@@ -0,0 +1,201 @@
+import java.nio.ByteBuffer;
+
+/**
+ * A line of a data source viewed in place in the buffer that holds it,
+ * without copying its bytes into a {@code String}. Each byte is one
+ * character, decoded as by {@link WordnetJarFile#getLine(ByteBuffer, int)}.
+ * <p>
+ * A view can be pointed at another line with
+ * {@link #set(ByteBuffer, int, int)}, so one instance can serve any number of
+ * lookups. Views are not thread-safe, but the buffers they point into are
+ * never modified, so a view stays valid as long as it is not reused. Call
+ * {@link #toString()} to keep a line.
+ * 
+ * @author Markus HAENSE
+ */
+public class LineView implements CharSequence {
+
+	private static final char SPACE = ' ';
+
+	private ByteBuffer fBuffer;
+	private int fStart;
+	private int fEnd;
+
+	/**
+	 * Constructs an empty view.
+	 */
+	public LineView() {
+		this(ByteBuffer.allocate(0), 0, 0);
+	}
+
+	public LineView(ByteBuffer buffer, int start, int end) {
+		set(buffer, start, end);
+	}
+
+	/**
+	 * Points the view at the bytes between the specified absolute positions
+	 * of the buffer, and returns it.
+	 */
+	public LineView set(ByteBuffer buffer, int start, int end) {
+		if (start < 0 || end < start || end > buffer.limit())
+			throw new IndexOutOfBoundsException(start + ", " + end);
+		fBuffer = buffer;
+		fStart = start;
+		fEnd = end;
+		return this;
+	}
+
+	public ByteBuffer getBuffer() {
+		return fBuffer;
+	}
+
+	/**
+	 * Returns the absolute position of the first byte of the line.
+	 */
+	public int getStart() {
+		return fStart;
+	}
+
+	/**
+	 * Returns the absolute position after the last byte of the line, not
+	 * counting the line terminator.
+	 */
+	public int getEnd() {
+		return fEnd;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.lang.CharSequence#length()
+	 */
+	public int length() {
+		return fEnd - fStart;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.lang.CharSequence#charAt(int)
+	 */
+	public char charAt(int index) {
+		if (index < 0 || index >= fEnd - fStart)
+			throw new IndexOutOfBoundsException(String.valueOf(index));
+		return (char) fBuffer.get(fStart + index);
+	}
+
+	/**
+	 * Returns a new view of the specified part of this line.
+	 * 
+	 * @see java.lang.CharSequence#subSequence(int, int)
+	 */
+	public LineView subSequence(int start, int end) {
+		if (start < 0 || end < start || end > fEnd - fStart)
+			throw new IndexOutOfBoundsException(start + ", " + end);
+		return new LineView(fBuffer, fStart + start, fStart + end);
+	}
+
+	/**
+	 * Returns the index of the first occurrence of the character at or after
+	 * the specified index, or -1 if there is none.
+	 */
+	public int indexOf(char c, int from) {
+		for (int i = Math.max(from, 0); i < fEnd - fStart; i++) {
+			if ((char) fBuffer.get(fStart + i) == c)
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns <code>true</code> if the line starts with the specified
+	 * characters, like {@link String#startsWith(String)}.
+	 */
+	public boolean startsWith(CharSequence prefix) {
+		int length = prefix.length();
+		if (length > fEnd - fStart)
+			return false;
+		for (int i = 0; i < length; i++) {
+			if ((char) fBuffer.get(fStart + i) != prefix.charAt(i))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns <code>true</code> if the line consists of the same characters
+	 * as the specified sequence, like
+	 * {@link String#contentEquals(CharSequence)}.
+	 */
+	public boolean contentEquals(CharSequence cs) {
+		return cs.length() == fEnd - fStart && startsWith(cs);
+	}
+
+	/**
+	 * Returns the index of the first character of the specified field, the
+	 * fields being separated by single spaces and counted from 0, or -1 if
+	 * the line has fewer fields.
+	 */
+	public int indexOfField(int field) {
+		int index = 0;
+		for (int i = 0; i < field; i++) {
+			index = indexOf(SPACE, index);
+			if (index == -1)
+				return -1;
+			index++;
+		}
+		return index <= fEnd - fStart ? index : -1;
+	}
+
+	/**
+	 * Returns the index after the last character of the field that starts at
+	 * the specified index.
+	 */
+	public int endOfField(int start) {
+		int end = indexOf(SPACE, start);
+		return end == -1 ? fEnd - fStart : end;
+	}
+
+	/**
+	 * Parses the characters between the specified indexes as an integer in
+	 * the specified radix, like {@link Integer#parseInt(String, int)}, but
+	 * without creating a {@code String}.
+	 * 
+	 * @throws NumberFormatException
+	 *             if the characters are not a valid number
+	 */
+	public int parseInt(int start, int end, int radix) {
+		if (start < 0 || end > fEnd - fStart || start >= end)
+			throw new NumberFormatException("empty or out of bounds: " + start
+					+ ", " + end);
+		boolean negative = charAt(start) == '-';
+		int i = negative ? start + 1 : start;
+		if (i == end)
+			throw new NumberFormatException(subSequence(start, end).toString());
+		long value = 0;
+		for (; i < end; i++) {
+			int digit = Character.digit(charAt(i), radix);
+			if (digit < 0)
+				throw new NumberFormatException(subSequence(start, end)
+						.toString());
+			value = value * radix + digit;
+			if (value > Integer.MAX_VALUE + (negative ? 1L : 0L))
+				throw new NumberFormatException(subSequence(start, end)
+						.toString());
+		}
+		return (int) (negative ? -value : value);
+	}
+
+	/**
+	 * Copies the line into a new {@code String}.
+	 * 
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		char[] chars = new char[fEnd - fStart];
+		for (int i = 0; i < chars.length; i++)
+			chars[i] = (char) fBuffer.get(fStart + i);
+		return new String(chars);
+	}
+}
@@ -0,0 +1,109 @@
+/**
+ * Open-addressed hash table from hashes to non-negative {@code int} values,
+ * such as line offsets or entry numbers, stored in two primitive arrays. The
+ * keys themselves are not stored: a {@link Matcher} compares a key with the
+ * value of a slot whose hash is equal, so the table serves keys held
+ * elsewhere, e.g. in the buffer of a data source. Collisions are resolved by
+ * linear probing, and the load factor is kept at or below one half.
+ * 
+ * @author Markus HAENSE
+ */
+final class OpenHashTable {
+
+	/** Hash of each slot, only valid if the slot is used */
+	private final int[] fHashes;
+
+	/** Value plus one for each slot, 0 if unused */
+	private final int[] fValues;
+
+	private final int fMask;
+
+	/**
+	 * Compares a key with the value of a slot.
+	 */
+	static abstract class Matcher<K> {
+		abstract boolean matches(K key, int value);
+	}
+
+	/**
+	 * Compares the keys held at two values, for building a table without
+	 * materializing the keys.
+	 */
+	static abstract class ValueMatcher {
+		abstract boolean matches(int value, int other);
+	}
+
+	/**
+	 * Creates a table for at most the specified number of entries.
+	 */
+	OpenHashTable(int entries) {
+		int capacity = Integer.highestOneBit(Math.max(entries, 1)) << 2;
+		fHashes = new int[capacity];
+		fValues = new int[capacity];
+		fMask = capacity - 1;
+	}
+
+	/**
+	 * Adds the value for the key with the specified hash, unless the table
+	 * already has a value for the key, in which case the first one wins.
+	 * Returns <code>true</code> if the value was added.
+	 */
+	<K> boolean add(int hash, K key, Matcher<K> matcher, int value) {
+		int slot = hash & fMask;
+		while (fValues[slot] != 0) {
+			if (fHashes[slot] == hash
+					&& matcher.matches(key, fValues[slot] - 1))
+				return false;
+			slot = (slot + 1) & fMask;
+		}
+		fHashes[slot] = hash;
+		fValues[slot] = value + 1;
+		return true;
+	}
+
+	/**
+	 * Adds the value with the specified hash of its key, unless the table
+	 * already has a value with an equal key, in which case the first one
+	 * wins. Returns <code>true</code> if the value was added.
+	 */
+	boolean add(int hash, int value, ValueMatcher matcher) {
+		int slot = hash & fMask;
+		while (fValues[slot] != 0) {
+			if (fHashes[slot] == hash
+					&& matcher.matches(value, fValues[slot] - 1))
+				return false;
+			slot = (slot + 1) & fMask;
+		}
+		fHashes[slot] = hash;
+		fValues[slot] = value + 1;
+		return true;
+	}
+
+	/**
+	 * Returns the value for the key with the specified hash, or -1 if there
+	 * is none, and adds the number of probed slots to the holder if there is
+	 * one.
+	 */
+	<K> int find(int hash, K key, Matcher<K> matcher, int[] probes) {
+		int slot = hash & fMask;
+		while (fValues[slot] != 0) {
+			if (probes != null)
+				probes[0]++;
+			if (fHashes[slot] == hash
+					&& matcher.matches(key, fValues[slot] - 1))
+				return fValues[slot] - 1;
+			slot = (slot + 1) & fMask;
+		}
+		return -1;
+	}
+
+	/**
+	 * Spreads the bits of the hash, since only the lower ones select a slot.
+	 */
+	static int mix(int hash) {
+		hash ^= (hash >>> 16);
+		hash *= 0x85ebca6b;
+		hash ^= (hash >>> 13);
+		return hash;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,422 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.ProviderNotFoundException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.zip.ZipEntry;
+
+import edu.mit.jwi.data.ContentType;
+import edu.mit.jwi.data.IContentType;
+import edu.mit.jwi.data.IDataSource;
+
+/**
+ * Implementation of the {@code IDataProvider} interface that reads the
+ * Wordnet files through {@code java.nio.file}, from the path it is given
+ * rather than from the JAR file it was loaded from. The path may be
+ * <ul>
+ * <li>a plain directory, e.g. an exploded JAR file,</li>
+ * <li>a JAR or ZIP file, which is opened as a ZIP file system,</li>
+ * <li>or a path inside such a file system, e.g. a JAR file nested in another
+ * archive, which is opened as a ZIP file system in turn.</li>
+ * </ul>
+ * The Wordnet files are taken from the directory itself if it holds any of
+ * them, and from its {@link #getWordnetPath()} subdirectory otherwise.
+ * <p>
+ * Files on the default file system are read through a {@code FileChannel},
+ * or memory-mapped if {@link #isMemoryMapped()}. In a ZIP file on the default
+ * file system, STORED entries are memory-mapped from the ZIP file as well,
+ * and compressed entries are inflated into a direct buffer. All other
+ * options of the {@link JarFileProvider} apply in the same way, except lazy
+ * loading: the sources are always loaded when the provider is opened or
+ * reloaded. An archive opened by a generation of sources is closed when the
+ * generation is retired.
+ * 
+ * @author Markus HAENSE
+ */
+public class PathProvider extends JarFileProvider {
+
+	private Path _jPath = null;
+
+	/**
+	 * Constructs the provider for the Wordnet files at the specified path.
+	 */
+	public PathProvider(Path path) {
+		this(path, ContentType.values());
+	}
+
+	/**
+	 * Allows specification of the content types that this provider should
+	 * load in the form of a an array. Duplicate content types will be ignored.
+	 */
+	public PathProvider(Path path, IContentType<?>... types) {
+		this(path, Arrays.asList(types));
+	}
+
+	/**
+	 * Allows specification of the content types that this provider should
+	 * load in the form of a {@code Collection}. Duplicate content types will be
+	 * ignored.
+	 */
+	public PathProvider(Path path, Collection<? extends IContentType<?>> types) {
+		super((URL) null, types);
+		setPath(path);
+	}
+
+	/**
+	 * Returns the path the Wordnet files are read from.
+	 */
+	public Path getPath() {
+		return _jPath;
+	}
+
+	/**
+	 * Sets the path the Wordnet files are read from when the provider is next
+	 * opened.
+	 */
+	public void setPath(Path path) {
+		if (path == null)
+			throw new NullPointerException();
+		_jPath = path;
+		super.setSource(toURL(path));
+	}
+
+	/**
+	 * Returns the directory the Wordnet files are read from, or
+	 * <code>null</code> if the provider is not open.
+	 */
+	public Path getDirectory() {
+		Generation generation = getGeneration();
+		return generation instanceof PathGeneration ? ((PathGeneration) generation)
+				.getDirectory()
+				: null;
+	}
+
+	/**
+	 * Sets the path from a {@code file} URL, or from a {@code jar} URL if its
+	 * ZIP file system is open.
+	 * 
+	 * @see edu.mit.jwi.data.IDataProvider#setSource(java.net.URL)
+	 */
+	@Override
+	public void setSource(URL url) {
+		super.setSource(url);
+		if (url == null)
+			return;
+		try {
+			_jPath = Paths.get(url.toURI());
+		} catch (URISyntaxException e) {
+			throw new IllegalArgumentException("Not a path: " + url, e);
+		} catch (RuntimeException e) {
+			throw new IllegalArgumentException("Not a path: " + url, e);
+		}
+	}
+
+	/**
+	 * Finds the Wordnet files at the path and loads the data sources.
+	 * 
+	 * @see JarFileProvider#loadGeneration()
+	 * @throws IOException
+	 *             if the path is neither a directory nor an archive, if no
+	 *             Wordnet files are found, or there is a problem with a file
+	 */
+	@Override
+	protected Generation loadGeneration() throws IOException {
+		Path path = _jPath;
+		final PathGeneration generation = new PathGeneration(getWordnetPath(),
+				getBufferRegistry());
+		boolean loaded = false;
+		try {
+			Path root = path;
+			if (!Files.isDirectory(path)) {
+				openArchive(generation, path);
+				root = generation._jFileSystem.getRootDirectories().iterator()
+						.next();
+			}
+
+			Path directory = root;
+			List<Path> files = listFiles(directory);
+			if (!containsSource(files)) {
+				directory = root.resolve(getWordnetPath());
+				files = Files.isDirectory(directory) ? listFiles(directory)
+						: Collections.<Path> emptyList();
+			}
+			if (!containsSource(files)) {
+				throw new IOException("No files found in " + path);
+			}
+
+			// like the JarFileProvider, take the first file matching each type
+			Map<IContentType<?>, Path> pathMap = new HashMap<IContentType<?>, Path>();
+			for (IContentType<?> type : getSearchTypes()) {
+				for (Path file : files) {
+					if (JarFileProvider.matches(file.getFileName().toString(),
+							type)) {
+						pathMap.put(type, file);
+						break;
+					}
+				}
+			}
+
+			Map<IContentType<?>, IDataSource<?>> fileMap;
+			if (isParallelLoading()) {
+				Map<IContentType<?>, Callable<IDataSource<?>>> loaders = new HashMap<IContentType<?>, Callable<IDataSource<?>>>();
+				for (final Map.Entry<IContentType<?>, Path> e : pathMap
+						.entrySet()) {
+					loaders.put(e.getKey(), new Callable<IDataSource<?>>() {
+						public IDataSource<?> call() throws IOException {
+							return loadSource(generation, e.getValue(), e
+									.getKey());
+						}
+					});
+				}
+				fileMap = loadInParallel(loaders, path);
+			} else {
+				fileMap = new HashMap<IContentType<?>, IDataSource<?>>();
+				for (Map.Entry<IContentType<?>, Path> e : pathMap.entrySet()) {
+					fileMap.put(e.getKey(), loadSource(generation, e
+							.getValue(), e.getKey()));
+				}
+			}
+
+			generation._jDirectory = directory;
+			generation.setSources(fileMap);
+			loaded = true;
+			return generation;
+		} finally {
+			if (!loaded) {
+				generation.retire();
+			}
+		}
+	}
+
+	/**
+	 * Opens the archive at the specified path as a ZIP file system for the
+	 * generation. An archive that cannot be opened where it is, e.g. one
+	 * nested in another archive on older platforms, is copied to a temporary
+	 * file first. The file system is closed and the temporary file deleted
+	 * when the generation is retired.
+	 */
+	protected void openArchive(PathGeneration generation, Path path)
+			throws IOException {
+		FileSystem fileSystem;
+		try {
+			fileSystem = FileSystems.newFileSystem(path, (ClassLoader) null);
+		} catch (UnsupportedOperationException e) {
+			final Path copy = Files.createTempFile("wordnet", ".jar");
+			generation.addResource(new Closeable() {
+				public void close() {
+					try {
+						Files.deleteIfExists(copy);
+					} catch (IOException e) {
+						// mapped buffers may still hold the file on some
+						// platforms
+						copy.toFile().deleteOnExit();
+					}
+				}
+			});
+			Files.copy(path, copy, StandardCopyOption.REPLACE_EXISTING);
+			fileSystem = FileSystems.newFileSystem(copy, (ClassLoader) null);
+			path = copy;
+		} catch (ProviderNotFoundException e) {
+			throw new IOException("Neither a directory nor an archive: "
+					+ path, e);
+		}
+		generation.addResource(fileSystem);
+		generation._jFileSystem = fileSystem;
+		generation._jArchive = path.getFileSystem() == FileSystems
+				.getDefault() ? path : null;
+	}
+
+	/**
+	 * Loads the content of a file and creates the data source for it. The
+	 * content is shared through the buffer registry, keyed by the CRC-32 of
+	 * the entry for a file in an archive, and by the modification time of the
+	 * file otherwise.
+	 */
+	protected <T> IDataSource<T> loadSource(final PathGeneration generation,
+			final Path file, IContentType<T> type) throws IOException {
+		String name = file.getFileName().toString();
+		BufferRegistry.Mode mode = isMemoryMapped() ? BufferRegistry.Mode.MAPPED
+				: BufferRegistry.Mode.HEAP;
+		BufferRegistry.Key key;
+		if (file.getFileSystem() == generation._jFileSystem) {
+			Object crc = Files.getAttribute(file, "zip:crc");
+			key = crc instanceof Long ? new BufferRegistry.Key(name, Files
+					.size(file), (Long) crc, mode) : null;
+		} else {
+			key = new BufferRegistry.Key(file.toAbsolutePath().toString(),
+					Files.size(file), Files.getLastModifiedTime(file)
+							.toMillis(), mode);
+		}
+		ByteBuffer buffer = acquireBuffer(generation, key,
+				new Callable<ByteBuffer>() {
+					public ByteBuffer call() throws IOException {
+						return loadBuffer(generation, file);
+					}
+				});
+		IDataSource<T> src = createDataSource(buffer, name, type);
+		if (src instanceof WordnetJarFile<?>)
+			((WordnetJarFile<?>) src).setMetrics(getMetrics());
+		return src;
+	}
+
+	/**
+	 * Loads the content of a file, memory-mapped if {@link #isMemoryMapped()}
+	 * and the file system allows it. Otherwise the file is read onto the heap,
+	 * or into a direct buffer if it should be memory-mapped but cannot be.
+	 */
+	protected ByteBuffer loadBuffer(PathGeneration generation, Path file)
+			throws IOException {
+		boolean mapped = isMemoryMapped();
+		if (mapped && file.getFileSystem() == FileSystems.getDefault()) {
+			FileChannel channel = FileChannel.open(file,
+					StandardOpenOption.READ);
+			try {
+				return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel
+						.size());
+			} finally {
+				channel.close();
+			}
+		}
+		Path archive = generation._jArchive;
+		if (mapped && archive != null
+				&& file.getFileSystem() == generation._jFileSystem) {
+			ByteBuffer buffer = mapEntry(archive, file);
+			if (buffer != null)
+				return buffer;
+		}
+
+		long size = Files.size(file);
+		if (size > Integer.MAX_VALUE)
+			throw new IOException("File too large: " + file);
+		ByteBuffer buffer = mapped ? ByteBuffer.allocateDirect((int) size)
+				: ByteBuffer.allocate((int) size);
+		SeekableByteChannel channel = Files.newByteChannel(file);
+		try {
+			while (buffer.hasRemaining() && channel.read(buffer) > -1)
+				;
+		} finally {
+			channel.close();
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * Memory-maps the data of a STORED entry of the archive, or returns
+	 * <code>null</code> if the entry is compressed or cannot be located.
+	 */
+	private ByteBuffer mapEntry(Path archive, Path file) throws IOException {
+		Object method = Files.getAttribute(file, "zip:method");
+		if (!(method instanceof Integer)
+				|| ((Integer) method).intValue() != ZipEntry.STORED)
+			return null;
+
+		String name = file.toAbsolutePath().toString().substring(1);
+		FileChannel channel = FileChannel.open(archive,
+				StandardOpenOption.READ);
+		try {
+			long offset = JarUtil.getEntryDataOffset(channel, name);
+			if (offset < 0)
+				return null;
+			return channel.map(FileChannel.MapMode.READ_ONLY, offset, Files
+					.size(file));
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Opens the specified file of the Wordnet directory of the generation, or
+	 * returns <code>null</code> if there is no such file.
+	 * 
+	 * @see JarFileProvider#openResource(JarFileProvider.Generation,
+	 *      java.lang.String)
+	 */
+	@Override
+	protected InputStream openResource(Generation generation, String name)
+			throws IOException {
+		Path directory = ((PathGeneration) generation).getDirectory();
+		if (directory == null)
+			return null;
+		Path file = directory.resolve(name);
+		return Files.isRegularFile(file) ? Files.newInputStream(file) : null;
+	}
+
+	/**
+	 * Returns the regular files in the directory, sorted by name.
+	 */
+	private static List<Path> listFiles(Path directory) throws IOException {
+		List<Path> files = new ArrayList<Path>();
+		DirectoryStream<Path> stream = Files.newDirectoryStream(directory);
+		try {
+			for (Path file : stream) {
+				if (Files.isRegularFile(file))
+					files.add(file);
+			}
+		} finally {
+			stream.close();
+		}
+		Collections.sort(files);
+		return files;
+	}
+
+	private boolean containsSource(List<Path> files) {
+		for (Path file : files)
+			for (IContentType<?> type : getSearchTypes())
+				if (JarFileProvider.matches(file.getFileName().toString(),
+						type))
+					return true;
+		return false;
+	}
+
+	private static URL toURL(Path path) {
+		try {
+			return path == null ? null : path.toUri().toURL();
+		} catch (MalformedURLException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * The data sources loaded from the path by one opening or reloading,
+	 * together with the directory they were found in and the archive it
+	 * belongs to, if any.
+	 */
+	protected static class PathGeneration extends Generation {
+		private Path _jDirectory = null;
+		private FileSystem _jFileSystem = null;
+		private Path _jArchive = null;
+
+		protected PathGeneration(String wordnetPath, BufferRegistry registry) {
+			super(null, wordnetPath, registry);
+		}
+
+		/**
+		 * Returns the directory the Wordnet files were found in.
+		 */
+		public Path getDirectory() {
+			return _jDirectory;
+		}
+	}
+}
\ No newline at end of file
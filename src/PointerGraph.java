@@ -0,0 +1,512 @@
+import java.util.Arrays;
+import java.util.Iterator;
+
+import edu.mit.jwi.data.IDataSource;
+import edu.mit.jwi.item.IPointer;
+import edu.mit.jwi.item.ISynsetID;
+import edu.mit.jwi.item.POS;
+import edu.mit.jwi.item.Pointer;
+import edu.mit.jwi.item.SynsetID;
+
+/**
+ * Graph of the semantic pointers between the synsets of a data file, for
+ * queries on the hypernym hierarchy that do not parse any synsets. Each synset
+ * is a node numbered densely in the order of the offsets, and the pointers of
+ * each type are kept in compressed sparse rows: the targets of all nodes in
+ * one array, and the start of the targets of each node in another. Only
+ * pointers between synsets of the same part of speech are kept; lexical
+ * pointers between words are left out.
+ * <p>
+ * The hypernym hierarchy follows both hypernym and instance hypernym
+ * pointers. The depths of all nodes are computed when the graph is built, so
+ * ancestors, depths and lowest common subsumers only walk a few arrays.
+ * 
+ * @author Markus HAENSE
+ */
+public class PointerGraph {
+
+	private static final char SPACE = ' ';
+	private static final String SEMANTIC = "0000";
+
+	private final POS fPOS;
+
+	/** Offset of the synset of each node, in ascending order */
+	private final int[] fOffsets;
+
+	/** Symbols of the pointer types, in the order they were first seen */
+	private final String[] fSymbols;
+
+	/** Start of the targets of each node in {@link #fTargets}, by type */
+	private final int[][] fStarts;
+
+	/** Targets of the pointers of all nodes, by type */
+	private final int[][] fTargets;
+
+	/** Start of the hypernyms of each node in {@link #fParents} */
+	private final int[] fParentStarts;
+
+	/** Targets of the hypernym and instance hypernym pointers */
+	private final int[] fParents;
+
+	/** Number of pointers on the shortest hypernym path to a root */
+	private final int[] fMinDepth;
+
+	/** Number of pointers on the longest hypernym path to a root */
+	private final int[] fMaxDepth;
+
+	/**
+	 * Constructs the graph from the offsets of the synsets, which must be
+	 * ascending, and the semantic pointers between them, given as parallel
+	 * arrays of the source node, the type and the target offset.
+	 */
+	protected PointerGraph(POS pos, int[] offsets, String[] symbols,
+			int[] sources, int[] types, int[] targetOffsets, int pointers) {
+		fPOS = pos;
+		fOffsets = offsets;
+		fSymbols = symbols;
+
+		int nodes = offsets.length;
+		fStarts = new int[symbols.length][nodes + 1];
+		fTargets = new int[symbols.length][];
+		int[] targets = new int[pointers];
+		for (int i = 0; i < pointers; i++) {
+			targets[i] = getNode(targetOffsets[i]);
+			if (targets[i] >= 0)
+				fStarts[types[i]][sources[i] + 1]++;
+		}
+		for (int type = 0; type < symbols.length; type++) {
+			int[] starts = fStarts[type];
+			for (int node = 0; node < nodes; node++)
+				starts[node + 1] += starts[node];
+			fTargets[type] = new int[starts[nodes]];
+		}
+		int[][] next = new int[symbols.length][];
+		for (int type = 0; type < symbols.length; type++)
+			next[type] = Arrays.copyOf(fStarts[type], nodes);
+		for (int i = 0; i < pointers; i++) {
+			if (targets[i] >= 0)
+				fTargets[types[i]][next[types[i]][sources[i]]++] = targets[i];
+		}
+
+		int hypernym = indexOf(symbols, Pointer.HYPERNYM.getSymbol());
+		int instance = indexOf(symbols, Pointer.HYPERNYM_INSTANCE.getSymbol());
+		fParentStarts = new int[nodes + 1];
+		fParents = new int[count(hypernym) + count(instance)];
+		int parents = 0;
+		for (int node = 0; node < nodes; node++) {
+			fParentStarts[node] = parents;
+			parents = copyTargets(hypernym, node, parents);
+			parents = copyTargets(instance, node, parents);
+		}
+		fParentStarts[nodes] = parents;
+
+		fMinDepth = new int[nodes];
+		fMaxDepth = new int[nodes];
+		computeDepths();
+	}
+
+	/**
+	 * Builds the graph from the lines of a data file. If the source is a
+	 * {@link WordnetJarFile}, the lines are read through views, so no text is
+	 * copied.
+	 */
+	public static PointerGraph build(IDataSource<?> source) {
+		POS pos = source.getContentType().getPOS();
+		Iterator<? extends CharSequence> lines;
+		if (source instanceof WordnetJarFile<?>)
+			lines = ((WordnetJarFile<?>) source).viewIterator();
+		else
+			lines = source.iterator();
+
+		int[] offsets = new int[1024];
+		int nodes = 0;
+		String[] symbols = new String[0];
+		int[] sources = new int[4096];
+		int[] types = new int[4096];
+		int[] targets = new int[4096];
+		int pointers = 0;
+		while (lines.hasNext()) {
+			CharSequence line = lines.next();
+			// synset_offset lex_filenum ss_type w_cnt [word lex_id...] p_cnt
+			// [ptr_symbol synset_offset pos source/target...] ...
+			int end = endOfField(line, 0);
+			int offset = parseInt(line, 0, end, 10);
+			if (nodes > 0 && offset <= offsets[nodes - 1])
+				throw new IllegalArgumentException(
+						"Synsets not sorted by offset at " + offset);
+			if (nodes == offsets.length)
+				offsets = Arrays.copyOf(offsets, nodes * 2);
+			offsets[nodes] = offset;
+
+			int start = skipFields(line, 0, 3);
+			end = endOfField(line, start);
+			int words = parseInt(line, start, end, 16);
+			start = skipFields(line, start, 1 + 2 * words);
+			end = endOfField(line, start);
+			int count = parseInt(line, start, end, 10);
+			start = end + 1;
+			for (int i = 0; i < count; i++) {
+				int symbolEnd = endOfField(line, start);
+				int offsetStart = symbolEnd + 1;
+				int offsetEnd = endOfField(line, offsetStart);
+				int posStart = offsetEnd + 1;
+				int flagsStart = endOfField(line, posStart) + 1;
+				int flagsEnd = endOfField(line, flagsStart);
+				if (isPOS(line.charAt(posStart), pos)
+						&& regionMatches(line, flagsStart, flagsEnd, SEMANTIC)) {
+					int type = indexOf(symbols, line, start, symbolEnd);
+					if (type < 0) {
+						type = symbols.length;
+						symbols = Arrays.copyOf(symbols, type + 1);
+						symbols[type] = line.subSequence(start, symbolEnd)
+								.toString();
+					}
+					if (pointers == sources.length) {
+						sources = Arrays.copyOf(sources, pointers * 2);
+						types = Arrays.copyOf(types, pointers * 2);
+						targets = Arrays.copyOf(targets, pointers * 2);
+					}
+					sources[pointers] = nodes;
+					types[pointers] = type;
+					targets[pointers++] = parseInt(line, offsetStart,
+							offsetEnd, 10);
+				}
+				start = flagsEnd + 1;
+			}
+			nodes++;
+		}
+		return new PointerGraph(pos, Arrays.copyOf(offsets, nodes), symbols,
+				sources, types, targets, pointers);
+	}
+
+	/**
+	 * Returns the part of speech of the synsets.
+	 */
+	public POS getPOS() {
+		return fPOS;
+	}
+
+	/**
+	 * Returns the number of nodes, i.e. synsets.
+	 */
+	public int size() {
+		return fOffsets.length;
+	}
+
+	/**
+	 * Returns the node of the synset with the specified offset, or -1 if
+	 * there is none.
+	 */
+	public int getNode(int offset) {
+		int node = Arrays.binarySearch(fOffsets, offset);
+		return node < 0 ? -1 : node;
+	}
+
+	/**
+	 * Returns the node of the specified synset, or -1 if there is none.
+	 */
+	public int getNode(ISynsetID id) {
+		return id.getPOS() == fPOS ? getNode(id.getOffset()) : -1;
+	}
+
+	/**
+	 * Returns the offset of the synset of the specified node.
+	 */
+	public int getOffset(int node) {
+		return fOffsets[node];
+	}
+
+	/**
+	 * Returns the ID of the synset of the specified node.
+	 */
+	public ISynsetID getSynsetID(int node) {
+		return new SynsetID(fOffsets[node], fPOS);
+	}
+
+	/**
+	 * Returns the number of pointers of the specified type from the node.
+	 */
+	public int getTargetCount(int node, IPointer pointer) {
+		int type = indexOf(fSymbols, pointer.getSymbol());
+		return type < 0 ? 0 : fStarts[type][node + 1] - fStarts[type][node];
+	}
+
+	/**
+	 * Returns the target of a pointer of the specified type from the node.
+	 */
+	public int getTarget(int node, IPointer pointer, int index) {
+		int type = indexOf(fSymbols, pointer.getSymbol());
+		if (index < 0 || index >= getTargetCount(node, pointer))
+			throw new IndexOutOfBoundsException("Pointer " + index + " of "
+					+ node);
+		return fTargets[type][fStarts[type][node] + index];
+	}
+
+	/**
+	 * Returns the targets of the pointers of the specified type from the
+	 * node.
+	 */
+	public int[] getTargets(int node, IPointer pointer) {
+		int type = indexOf(fSymbols, pointer.getSymbol());
+		if (type < 0)
+			return new int[0];
+		return Arrays.copyOfRange(fTargets[type], fStarts[type][node],
+				fStarts[type][node + 1]);
+	}
+
+	/**
+	 * Returns the targets of the hypernym and instance hypernym pointers from
+	 * the node.
+	 */
+	public int[] getHypernyms(int node) {
+		return Arrays.copyOfRange(fParents, fParentStarts[node],
+				fParentStarts[node + 1]);
+	}
+
+	/**
+	 * Returns the number of hypernym pointers on the shortest path from the
+	 * node to a root of the hierarchy, which is 0 for a root.
+	 */
+	public int getDepth(int node) {
+		return fMinDepth[node];
+	}
+
+	/**
+	 * Returns the number of hypernym pointers on the longest path from the
+	 * node to a root of the hierarchy, which is 0 for a root.
+	 */
+	public int getMaxDepth(int node) {
+		return fMaxDepth[node];
+	}
+
+	/**
+	 * Returns all ancestors of the node in the hypernym hierarchy, nearest
+	 * first, without the node itself.
+	 */
+	public int[] getAncestors(int node) {
+		Ancestry ancestry = new Ancestry(node);
+		return Arrays.copyOfRange(ancestry.fNodes, 1, ancestry.fSize);
+	}
+
+	/**
+	 * Returns whether the first node is an ancestor of the second one in the
+	 * hypernym hierarchy.
+	 */
+	public boolean isAncestor(int ancestor, int node) {
+		if (ancestor == node || fMinDepth[ancestor] >= fMaxDepth[node])
+			return false;
+		return new Ancestry(node).indexOf(ancestor) > 0;
+	}
+
+	/**
+	 * Returns the lowest common subsumer of the nodes, which is the deepest,
+	 * by {@link #getMaxDepth(int)}, of the nodes that are either one of them
+	 * or an ancestor of both; or -1 if the nodes have no common ancestor.
+	 * Among equally deep subsumers, the one closest to both nodes wins.
+	 */
+	public int getLowestCommonSubsumer(int a, int b) {
+		Ancestry first = new Ancestry(a);
+		Ancestry second = new Ancestry(b);
+		int best = -1;
+		int bestDistance = 0;
+		for (int i = 0; i < first.fSize; i++) {
+			int j = second.indexOf(first.fNodes[i]);
+			if (j < 0)
+				continue;
+			int node = first.fNodes[i];
+			int distance = first.fDistances[i] + second.fDistances[j];
+			if (best >= 0 && fMaxDepth[node] != fMaxDepth[best]) {
+				if (fMaxDepth[node] < fMaxDepth[best])
+					continue;
+			} else if (best >= 0
+					&& (distance > bestDistance || (distance == bestDistance && node > best))) {
+				continue;
+			}
+			best = node;
+			bestDistance = distance;
+		}
+		return best;
+	}
+
+	/**
+	 * Returns the number of hypernym pointers on the shortest path between
+	 * the nodes through a common ancestor, or -1 if they have none.
+	 */
+	public int getDistance(int a, int b) {
+		Ancestry first = new Ancestry(a);
+		Ancestry second = new Ancestry(b);
+		int best = -1;
+		for (int i = 0; i < first.fSize; i++) {
+			int j = second.indexOf(first.fNodes[i]);
+			if (j < 0)
+				continue;
+			int distance = first.fDistances[i] + second.fDistances[j];
+			if (best < 0 || distance < best)
+				best = distance;
+		}
+		return best;
+	}
+
+	/**
+	 * Computes the depths of all nodes by a depth-first search over the
+	 * hypernyms. A pointer back into the current path would make a cycle, so
+	 * it is ignored.
+	 */
+	private void computeDepths() {
+		int nodes = fOffsets.length;
+		byte[] state = new byte[nodes]; // 0 new, 1 on the path, 2 done
+		int[] stack = new int[16];
+		int[] next = new int[16];
+		for (int root = 0; root < nodes; root++) {
+			if (state[root] != 0)
+				continue;
+			int top = 0;
+			stack[0] = root;
+			next[0] = fParentStarts[root];
+			state[root] = 1;
+			while (top >= 0) {
+				int node = stack[top];
+				if (next[top] < fParentStarts[node + 1]) {
+					int parent = fParents[next[top]++];
+					if (state[parent] == 0) {
+						if (++top == stack.length) {
+							stack = Arrays.copyOf(stack, top * 2);
+							next = Arrays.copyOf(next, top * 2);
+						}
+						stack[top] = parent;
+						next[top] = fParentStarts[parent];
+						state[parent] = 1;
+					}
+					continue;
+				}
+
+				int min = -1;
+				int max = -1;
+				for (int i = fParentStarts[node]; i < fParentStarts[node + 1]; i++) {
+					int parent = fParents[i];
+					if (state[parent] != 2)
+						continue;
+					if (min < 0 || fMinDepth[parent] + 1 < min)
+						min = fMinDepth[parent] + 1;
+					if (fMaxDepth[parent] + 1 > max)
+						max = fMaxDepth[parent] + 1;
+				}
+				fMinDepth[node] = Math.max(min, 0);
+				fMaxDepth[node] = Math.max(max, 0);
+				state[node] = 2;
+				top--;
+			}
+		}
+	}
+
+	private int count(int type) {
+		return type < 0 ? 0 : fTargets[type].length;
+	}
+
+	private int copyTargets(int type, int node, int pos) {
+		if (type < 0)
+			return pos;
+		int from = fStarts[type][node];
+		int length = fStarts[type][node + 1] - from;
+		System.arraycopy(fTargets[type], from, fParents, pos, length);
+		return pos + length;
+	}
+
+	private static boolean isPOS(char tag, POS pos) {
+		if (POS.isAdjectiveSatellite(tag))
+			return pos == POS.ADJECTIVE;
+		return tag == pos.getTag();
+	}
+
+	private static int indexOf(String[] symbols, String symbol) {
+		for (int i = 0; i < symbols.length; i++)
+			if (symbols[i].equals(symbol))
+				return i;
+		return -1;
+	}
+
+	private static int indexOf(String[] symbols, CharSequence line,
+			int start, int end) {
+		for (int i = 0; i < symbols.length; i++)
+			if (symbols[i].length() == end - start
+					&& regionMatches(line, start, end, symbols[i]))
+				return i;
+		return -1;
+	}
+
+	private static boolean regionMatches(CharSequence line, int start,
+			int end, String s) {
+		if (end - start != s.length())
+			return false;
+		for (int i = 0; i < s.length(); i++)
+			if (line.charAt(start + i) != s.charAt(i))
+				return false;
+		return true;
+	}
+
+	private static int endOfField(CharSequence line, int start) {
+		int length = line.length();
+		while (start < length && line.charAt(start) != SPACE)
+			start++;
+		return start;
+	}
+
+	private static int skipFields(CharSequence line, int start, int fields) {
+		for (int i = 0; i < fields; i++)
+			start = endOfField(line, start) + 1;
+		return start;
+	}
+
+	private static int parseInt(CharSequence line, int start, int end,
+			int radix) {
+		if (start >= end)
+			throw new NumberFormatException("Missing number in " + line);
+		int value = 0;
+		for (int i = start; i < end; i++) {
+			int digit = Character.digit(line.charAt(i), radix);
+			if (digit < 0)
+				throw new NumberFormatException(line.subSequence(start, end)
+						.toString());
+			value = value * radix + digit;
+		}
+		return value;
+	}
+
+	/**
+	 * The ancestors of a node, including the node itself, with their
+	 * distances from it, found by a breadth-first search over the hypernyms.
+	 * Hierarchies are shallow, so the few ancestors are searched linearly.
+	 */
+	private class Ancestry {
+
+		private int[] fNodes = new int[16];
+		private int[] fDistances = new int[16];
+		private int fSize;
+
+		Ancestry(int node) {
+			fNodes[0] = node;
+			fSize = 1;
+			for (int i = 0; i < fSize; i++) {
+				int current = fNodes[i];
+				for (int p = fParentStarts[current]; p < fParentStarts[current + 1]; p++) {
+					int parent = fParents[p];
+					if (indexOf(parent) >= 0)
+						continue;
+					if (fSize == fNodes.length) {
+						fNodes = Arrays.copyOf(fNodes, fSize * 2);
+						fDistances = Arrays.copyOf(fDistances, fSize * 2);
+					}
+					fNodes[fSize] = parent;
+					fDistances[fSize++] = fDistances[i] + 1;
+				}
+			}
+		}
+
+		int indexOf(int node) {
+			for (int i = 0; i < fSize; i++)
+				if (fNodes[i] == node)
+					return i;
+			return -1;
+		}
+	}
+}
\ No newline at end of file
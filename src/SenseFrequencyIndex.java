@@ -0,0 +1,289 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import edu.mit.jwi.item.ISenseKey;
+import edu.mit.jwi.item.POS;
+import edu.mit.jwi.item.SenseKey;
+
+/**
+ * Index of the tag counts of the senses in the Wordnet {@code cntlist.rev}
+ * file, whose lines consist of a sense key, the sense number and the tag
+ * count, sorted by sense key. The sense keys are held in one shared character
+ * array and the numbers in primitive arrays, in file order, so a sense key is
+ * found by binary search and the senses of a lemma are adjacent. The index
+ * answers which senses of a lemma are the most frequent ones without touching
+ * the data files.
+ * 
+ * @author Markus HAENSE
+ */
+public class SenseFrequencyIndex {
+
+	/** Name of the file the index is loaded from */
+	public static final String FILE_NAME = "cntlist.rev";
+
+	private static final char SPACE = ' ';
+	private static final char LEMMA_SEPARATOR = '%';
+
+	/** The characters of all sense keys, in file order */
+	private final char[] fKeys;
+
+	/** Start of each sense key in {@link #fKeys}, followed by the length */
+	private final int[] fKeyStarts;
+
+	private final int[] fSenseNumbers;
+	private final int[] fTagCounts;
+
+	/**
+	 * Loads the index from the content of a {@code cntlist.rev} file.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if a line is misformatted or the lines are not sorted by
+	 *             sense key
+	 */
+	public SenseFrequencyIndex(ByteBuffer buffer) {
+		int limit = buffer.limit();
+
+		// first pass: count the senses and the characters of their keys
+		int count = 0;
+		int chars = 0;
+		for (int pos = 0; pos < limit; pos = WordnetJarFile.skipLine(buffer,
+				pos)) {
+			int end = WordnetJarFile.getLineEnd(buffer, pos);
+			if (end == pos)
+				continue;
+			count++;
+			while (pos < end && buffer.get(pos) != SPACE) {
+				pos++;
+				chars++;
+			}
+		}
+
+		fKeys = new char[chars];
+		fKeyStarts = new int[count + 1];
+		fSenseNumbers = new int[count];
+		fTagCounts = new int[count];
+
+		// second pass: decode the keys and parse the numbers
+		LineView line = new LineView();
+		count = 0;
+		chars = 0;
+		for (int pos = 0; pos < limit; pos = WordnetJarFile.skipLine(buffer,
+				pos)) {
+			int end = WordnetJarFile.getLineEnd(buffer, pos);
+			if (end == pos)
+				continue;
+			line.set(buffer, pos, end);
+			int number = line.indexOfField(1);
+			int tagCount = line.indexOfField(2);
+			if (number < 0 || tagCount < 0)
+				throw new IllegalArgumentException("Misformatted line: "
+						+ line);
+
+			fKeyStarts[count] = chars;
+			for (int i = 0, key = line.endOfField(0); i < key; i++)
+				fKeys[chars++] = line.charAt(i);
+			fSenseNumbers[count] = line.parseInt(number, line
+					.endOfField(number), 10);
+			fTagCounts[count] = line.parseInt(tagCount, line
+					.endOfField(tagCount), 10);
+			if (count > 0 && compare(count - 1, fKeys, fKeyStarts[count],
+					chars - fKeyStarts[count]) >= 0)
+				throw new IllegalArgumentException("Not sorted by sense key: "
+						+ line);
+			count++;
+		}
+		fKeyStarts[count] = chars;
+	}
+
+	/**
+	 * Reads the stream fully, closes it, and loads the index from its
+	 * content.
+	 */
+	public static SenseFrequencyIndex load(InputStream is) throws IOException {
+		return new SenseFrequencyIndex(WordnetJarFile.readBuffer(is));
+	}
+
+	/**
+	 * Returns the number of senses in the index.
+	 */
+	public int size() {
+		return fSenseNumbers.length;
+	}
+
+	/**
+	 * Returns the index of the entry for the specified sense key, or -1 if
+	 * there is none. Nothing is allocated.
+	 */
+	public int getEntry(CharSequence senseKey) {
+		int entry = lowerBound(senseKey, senseKey.length());
+		if (entry < size()
+				&& getKeyLength(entry) == senseKey.length()
+				&& regionMatches(entry, senseKey, senseKey.length()))
+			return entry;
+		return -1;
+	}
+
+	/**
+	 * Returns the index of the entry for the specified sense key, or -1 if
+	 * there is none. The head word of an adjective satellite must have been
+	 * set.
+	 */
+	public int getEntry(ISenseKey senseKey) {
+		return getEntry(SenseKey.toString(senseKey));
+	}
+
+	/**
+	 * Returns the tag count of the specified sense key, which is 0 if the
+	 * sense is not in the index.
+	 */
+	public int getTagCount(CharSequence senseKey) {
+		int entry = getEntry(senseKey);
+		return entry < 0 ? 0 : fTagCounts[entry];
+	}
+
+	/**
+	 * Returns the tag count of the specified sense key, which is 0 if the
+	 * sense is not in the index. The head word of an adjective satellite must
+	 * have been set.
+	 */
+	public int getTagCount(ISenseKey senseKey) {
+		int entry = getEntry(senseKey);
+		return entry < 0 ? 0 : fTagCounts[entry];
+	}
+
+	/**
+	 * Returns the sense key of the specified entry.
+	 */
+	public String getSenseKey(int entry) {
+		return new String(fKeys, fKeyStarts[entry], getKeyLength(entry));
+	}
+
+	/**
+	 * Returns the sense number of the specified entry, i.e. the position of
+	 * the sense in the index line of its lemma, starting with 1. The
+	 * {@code cntlist.rev} file of Wordnet 3.0 also holds some keys of senses
+	 * that no longer exist, whose numbers refer to other senses.
+	 */
+	public int getSenseNumber(int entry) {
+		return fSenseNumbers[entry];
+	}
+
+	/**
+	 * Returns the tag count of the specified entry.
+	 */
+	public int getTagCount(int entry) {
+		return fTagCounts[entry];
+	}
+
+	/**
+	 * Returns the entries of at most the specified number of the most
+	 * frequent senses of the lemma with the part of speech, in descending
+	 * order of their tag counts, and ascending order of their sense numbers
+	 * for equal counts. Senses that have never been tagged are not in the
+	 * index. The lemma is normalized like in the index files.
+	 */
+	public int[] getMostFrequent(String lemma, POS pos, int k) {
+		if (k < 0)
+			throw new IllegalArgumentException("Negative number of senses: "
+					+ k);
+		String prefix = LemmaTrie.normalize(lemma) + LEMMA_SEPARATOR;
+		int[] entries = new int[8];
+		int count = 0;
+		for (int type = 1; type <= POS.NUM_ADJECTIVE_SATELLITE; type++) {
+			if (type != pos.getNumber()
+					&& !(pos == POS.ADJECTIVE && POS.isAdjectiveSatellite(type)))
+				continue;
+
+			String typePrefix = prefix + type;
+			int length = typePrefix.length();
+			for (int entry = lowerBound(typePrefix, length); entry < size()
+					&& getKeyLength(entry) >= length
+					&& regionMatches(entry, typePrefix, length); entry++) {
+				if (count == entries.length) {
+					int[] tmp = new int[count * 2];
+					System.arraycopy(entries, 0, tmp, 0, count);
+					entries = tmp;
+				}
+				entries[count++] = entry;
+			}
+		}
+
+		// selection sort of the first k, as lemmas have few senses
+		int selected = Math.min(k, count);
+		for (int i = 0; i < selected; i++) {
+			int best = i;
+			for (int j = i + 1; j < count; j++)
+				if (isMoreFrequent(entries[j], entries[best]))
+					best = j;
+			int tmp = entries[i];
+			entries[i] = entries[best];
+			entries[best] = tmp;
+		}
+		int[] result = new int[selected];
+		System.arraycopy(entries, 0, result, 0, selected);
+		return result;
+	}
+
+	private boolean isMoreFrequent(int a, int b) {
+		if (fTagCounts[a] != fTagCounts[b])
+			return fTagCounts[a] > fTagCounts[b];
+		return fSenseNumbers[a] < fSenseNumbers[b];
+	}
+
+	private int getKeyLength(int entry) {
+		return fKeyStarts[entry + 1] - fKeyStarts[entry];
+	}
+
+	/**
+	 * Returns the first entry whose key is not ordered before the specified
+	 * number of characters of the key, or the size if there is none.
+	 */
+	private int lowerBound(CharSequence key, int length) {
+		int low = 0;
+		int high = size();
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (compare(mid, key, length) < 0)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+	/**
+	 * Compares the key of the entry to the specified characters, like
+	 * {@link String#compareTo(String)}.
+	 */
+	private int compare(int entry, CharSequence key, int length) {
+		int start = fKeyStarts[entry];
+		int keyLength = getKeyLength(entry);
+		int n = Math.min(keyLength, length);
+		for (int i = 0; i < n; i++) {
+			char c = key.charAt(i);
+			if (fKeys[start + i] != c)
+				return fKeys[start + i] - c;
+		}
+		return keyLength - length;
+	}
+
+	private int compare(int entry, char[] chars, int start, int length) {
+		int from = fKeyStarts[entry];
+		int keyLength = getKeyLength(entry);
+		int n = Math.min(keyLength, length);
+		for (int i = 0; i < n; i++) {
+			if (fKeys[from + i] != chars[start + i])
+				return fKeys[from + i] - chars[start + i];
+		}
+		return keyLength - length;
+	}
+
+	private boolean regionMatches(int entry, CharSequence key, int length) {
+		int start = fKeyStarts[entry];
+		for (int i = 0; i < length; i++)
+			if (fKeys[start + i] != key.charAt(i))
+				return false;
+		return true;
+	}
+}
\ No newline at end of file
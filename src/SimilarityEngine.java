@@ -0,0 +1,396 @@
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import edu.mit.jwi.item.IIndexWord;
+import edu.mit.jwi.item.ISynsetID;
+import edu.mit.jwi.item.IWordID;
+import edu.mit.jwi.item.POS;
+
+/**
+ * Computes the semantic similarity of many pairs of synsets or lemmas in
+ * parallel, from the {@link PointerGraph} of a part of speech. Batches are
+ * split into ranges on a fork-join pool, and the results are returned in
+ * primitive arrays in the order of the pairs.
+ * <p>
+ * A virtual root is placed above all roots of the hypernym hierarchy, as the
+ * verbs have hundreds of them, so every pair of synsets is related. The
+ * measures are those of Pedersen's WordNet::Similarity with its root node:
+ * <ul>
+ * <li>path: 1 / (d + 1), where d is the number of hypernym pointers on the
+ * shortest path between the synsets through a common subsumer</li>
+ * <li>Wu-Palmer: 2 * D(s) / (d(a, s) + d(b, s) + 2 * D(s)), where s is the
+ * lowest common subsumer and D(s) the number of nodes on the longest path
+ * from s to the virtual root, including both</li>
+ * <li>Leacock-Chodorow: -ln((d + 1) / (2 * D)), where D is the number of
+ * nodes on the longest path from any synset to the virtual root</li>
+ * </ul>
+ * The ancestors of each synset are computed once, when they are first
+ * needed, and kept sorted with their distances, so that the common subsumers
+ * of two synsets are found by merging two short arrays. The engine is thread
+ * safe; the graph is immutable, and the lemmas are resolved through the
+ * dictionary, whose data sources can be read concurrently.
+ * 
+ * @author Markus HAENSE
+ */
+public class SimilarityEngine {
+
+	/**
+	 * The supported similarity measures.
+	 */
+	public enum Measure {
+		PATH, WU_PALMER, LEACOCK_CHODOROW
+	}
+
+	/** Number of pairs below which a range is not split any further */
+	private static final int THRESHOLD = 1024;
+
+	private static final int[] NO_SENSES = new int[0];
+
+	private final JarDictionary fDictionary;
+	private final PointerGraph fGraph;
+
+	/** Nodes on the longest path from any synset to the virtual root */
+	private final int fMaxDepth;
+
+	/**
+	 * The ancestors of each node, including itself, sorted by node and
+	 * followed by their distances from it; <code>null</code> until first
+	 * needed.
+	 */
+	private final AtomicReferenceArray<int[]> fAncestry;
+
+	/** The nodes of the senses of each lemma resolved so far */
+	private final ConcurrentMap<String, int[]> fSenses = new ConcurrentHashMap<String, int[]>();
+
+	private volatile ForkJoinPool fPool = null;
+
+	/**
+	 * Constructs the engine for the synsets of the specified part of speech,
+	 * building the pointer graph of the dictionary if necessary.
+	 */
+	public SimilarityEngine(JarDictionary dictionary, POS pos) {
+		fDictionary = dictionary;
+		fGraph = dictionary.getPointerGraph(pos);
+		int max = 0;
+		for (int node = 0; node < fGraph.size(); node++)
+			max = Math.max(max, fGraph.getMaxDepth(node));
+		fMaxDepth = max + 2;
+		fAncestry = new AtomicReferenceArray<int[]>(fGraph.size());
+	}
+
+	/**
+	 * Returns the graph the similarities are computed from.
+	 */
+	public PointerGraph getGraph() {
+		return fGraph;
+	}
+
+	/**
+	 * Returns the pool the batches are computed on, or <code>null</code> if
+	 * they use the common pool.
+	 */
+	public ForkJoinPool getPool() {
+		return fPool;
+	}
+
+	/**
+	 * Sets the pool the batches are computed on. If <code>null</code>, the
+	 * common pool is used.
+	 */
+	public void setPool(ForkJoinPool pool) {
+		fPool = pool;
+	}
+
+	/**
+	 * Returns the similarity of the synsets of the specified nodes of the
+	 * graph.
+	 */
+	public double getSimilarity(Measure measure, int a, int b) {
+		int[] first = getAncestry(a);
+		int[] second = getAncestry(b);
+		int firstSize = first.length / 2;
+		int secondSize = second.length / 2;
+
+		// the virtual root is the fallback subsumer
+		int distance = fGraph.getDepth(a) + fGraph.getDepth(b) + 2;
+		int subsumerDepth = 1;
+		int subsumerDistance = distance;
+		for (int i = 0, j = 0; i < firstSize && j < secondSize;) {
+			if (first[i] < second[j]) {
+				i++;
+			} else if (first[i] > second[j]) {
+				j++;
+			} else {
+				int d = first[firstSize + i] + second[secondSize + j];
+				int depth = fGraph.getMaxDepth(first[i]) + 2;
+				if (d < distance)
+					distance = d;
+				if (depth > subsumerDepth
+						|| (depth == subsumerDepth && d < subsumerDistance)) {
+					subsumerDepth = depth;
+					subsumerDistance = d;
+				}
+				i++;
+				j++;
+			}
+		}
+
+		switch (measure) {
+		case PATH:
+			return 1.0 / (distance + 1);
+		case WU_PALMER:
+			return 2.0 * subsumerDepth / (subsumerDistance + 2 * subsumerDepth);
+		case LEACOCK_CHODOROW:
+			return -Math.log((distance + 1) / (2.0 * fMaxDepth));
+		default:
+			throw new IllegalArgumentException("Unknown measure " + measure);
+		}
+	}
+
+	/**
+	 * Returns the similarity of the specified synsets, or {@link Double#NaN}
+	 * if either of them is not in the graph.
+	 */
+	public double getSimilarity(Measure measure, ISynsetID a, ISynsetID b) {
+		int first = fGraph.getNode(a);
+		int second = fGraph.getNode(b);
+		if (first < 0 || second < 0)
+			return Double.NaN;
+		return getSimilarity(measure, first, second);
+	}
+
+	/**
+	 * Returns the highest similarity of any sense of the first lemma to any
+	 * sense of the second one, or {@link Double#NaN} if either lemma is not
+	 * found.
+	 */
+	public double getSimilarity(Measure measure, String a, String b) {
+		int[] first = getSenses(a);
+		int[] second = getSenses(b);
+		if (first.length == 0 || second.length == 0)
+			return Double.NaN;
+		double best = Double.NEGATIVE_INFINITY;
+		for (int x : first)
+			for (int y : second)
+				best = Math.max(best, getSimilarity(measure, x, y));
+		return best;
+	}
+
+	/**
+	 * Returns the similarities of the pairs of nodes at the same positions of
+	 * the arrays, computed in parallel.
+	 */
+	public double[] compute(Measure measure, int[] first, int[] second) {
+		if (first.length != second.length)
+			throw new IllegalArgumentException("Arrays of different lengths: "
+					+ first.length + ", " + second.length);
+		double[] result = new double[first.length];
+		invoke(new NodeTask(measure, first, second, result, 0, first.length));
+		return result;
+	}
+
+	/**
+	 * Returns the similarities of the pairs of synsets of the stream, in the
+	 * order of the stream, computed in parallel. Each pair is an array of two
+	 * synset IDs. The similarity of a pair with a synset that is not in the
+	 * graph is {@link Double#NaN}.
+	 */
+	public double[] computeSynsets(Measure measure, Stream<ISynsetID[]> pairs) {
+		List<ISynsetID[]> list = pairs.collect(Collectors.<ISynsetID[]> toList());
+		int[] first = new int[list.size()];
+		int[] second = new int[list.size()];
+		for (int i = 0; i < first.length; i++) {
+			first[i] = fGraph.getNode(list.get(i)[0]);
+			second[i] = fGraph.getNode(list.get(i)[1]);
+		}
+		return compute(measure, first, second);
+	}
+
+	/**
+	 * Returns the similarities of the pairs of lemmas of the stream, in the
+	 * order of the stream, computed in parallel. Each pair is an array of two
+	 * lemmas. The similarity of a pair is the highest one of any of their
+	 * senses, or {@link Double#NaN} if either lemma is not found.
+	 */
+	public double[] computeLemmas(Measure measure, Stream<String[]> pairs) {
+		List<String[]> list = pairs.collect(Collectors.<String[]> toList());
+		String[][] array = list.toArray(new String[list.size()][]);
+		double[] result = new double[array.length];
+		invoke(new LemmaTask(measure, array, result, 0, array.length));
+		return result;
+	}
+
+	private void invoke(RecursiveAction task) {
+		ForkJoinPool pool = fPool;
+		if (pool == null)
+			pool = ForkJoinPool.commonPool();
+		pool.invoke(task);
+	}
+
+	/**
+	 * Returns the ancestry of the node, computing it on first request. Two
+	 * threads may compute it at the same time, but only one result is kept.
+	 */
+	private int[] getAncestry(int node) {
+		int[] ancestry = fAncestry.get(node);
+		if (ancestry == null) {
+			ancestry = computeAncestry(node);
+			if (!fAncestry.compareAndSet(node, null, ancestry))
+				ancestry = fAncestry.get(node);
+		}
+		return ancestry;
+	}
+
+	/**
+	 * Searches the ancestors of the node breadth first and sorts them, with
+	 * their distances, by node.
+	 */
+	private int[] computeAncestry(int node) {
+		int[] nodes = new int[16];
+		int[] distances = new int[16];
+		nodes[0] = node;
+		int size = 1;
+		for (int i = 0; i < size; i++) {
+			for (int parent : fGraph.getHypernyms(nodes[i])) {
+				if (indexOf(nodes, size, parent) >= 0)
+					continue;
+				if (size == nodes.length) {
+					nodes = Arrays.copyOf(nodes, size * 2);
+					distances = Arrays.copyOf(distances, size * 2);
+				}
+				nodes[size] = parent;
+				distances[size++] = distances[i] + 1;
+			}
+		}
+
+		long[] sorted = new long[size];
+		for (int i = 0; i < size; i++)
+			sorted[i] = ((long) nodes[i] << 32) | distances[i];
+		Arrays.sort(sorted);
+		int[] ancestry = new int[2 * size];
+		for (int i = 0; i < size; i++) {
+			ancestry[i] = (int) (sorted[i] >>> 32);
+			ancestry[size + i] = (int) sorted[i];
+		}
+		return ancestry;
+	}
+
+	private static int indexOf(int[] nodes, int size, int node) {
+		for (int i = 0; i < size; i++)
+			if (nodes[i] == node)
+				return i;
+		return -1;
+	}
+
+	/**
+	 * Returns the nodes of the senses of the lemma, resolving them through
+	 * the dictionary on first request.
+	 */
+	private int[] getSenses(String lemma) {
+		int[] senses = fSenses.get(lemma);
+		if (senses == null) {
+			senses = NO_SENSES;
+			IIndexWord word = fDictionary.getIndexWord(lemma, fGraph.getPOS());
+			if (word != null) {
+				List<IWordID> ids = word.getWordIDs();
+				senses = new int[ids.size()];
+				int count = 0;
+				for (IWordID id : ids) {
+					int node = fGraph.getNode(id.getSynsetID());
+					if (node >= 0)
+						senses[count++] = node;
+				}
+				senses = Arrays.copyOf(senses, count);
+			}
+			int[] previous = fSenses.putIfAbsent(lemma, senses);
+			if (previous != null)
+				senses = previous;
+		}
+		return senses;
+	}
+
+	/**
+	 * Computes the similarities of a range of pairs of nodes, splitting it in
+	 * halves as long as it is large enough.
+	 */
+	private class NodeTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Measure fMeasure;
+		private final int[] fFirst;
+		private final int[] fSecond;
+		private final double[] fResult;
+		private final int fFrom;
+		private final int fTo;
+
+		NodeTask(Measure measure, int[] first, int[] second, double[] result,
+				int from, int to) {
+			fMeasure = measure;
+			fFirst = first;
+			fSecond = second;
+			fResult = result;
+			fFrom = from;
+			fTo = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (fTo - fFrom > THRESHOLD) {
+				int mid = (fFrom + fTo) >>> 1;
+				invokeAll(new NodeTask(fMeasure, fFirst, fSecond, fResult,
+						fFrom, mid), new NodeTask(fMeasure, fFirst, fSecond,
+						fResult, mid, fTo));
+				return;
+			}
+			for (int i = fFrom; i < fTo; i++) {
+				fResult[i] = fFirst[i] < 0 || fSecond[i] < 0 ? Double.NaN
+						: getSimilarity(fMeasure, fFirst[i], fSecond[i]);
+			}
+		}
+	}
+
+	/**
+	 * Computes the similarities of a range of pairs of lemmas, splitting it
+	 * in halves as long as it is large enough.
+	 */
+	private class LemmaTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Measure fMeasure;
+		private final String[][] fPairs;
+		private final double[] fResult;
+		private final int fFrom;
+		private final int fTo;
+
+		LemmaTask(Measure measure, String[][] pairs, double[] result,
+				int from, int to) {
+			fMeasure = measure;
+			fPairs = pairs;
+			fResult = result;
+			fFrom = from;
+			fTo = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (fTo - fFrom > THRESHOLD) {
+				int mid = (fFrom + fTo) >>> 1;
+				invokeAll(new LemmaTask(fMeasure, fPairs, fResult, fFrom, mid),
+						new LemmaTask(fMeasure, fPairs, fResult, mid, fTo));
+				return;
+			}
+			for (int i = fFrom; i < fTo; i++)
+				fResult[i] = getSimilarity(fMeasure, fPairs[i][0],
+						fPairs[i][1]);
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,237 @@
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.jar.JarFile;
+
+import edu.mit.jwi.data.ContentType;
+import edu.mit.jwi.data.IContentType;
+import edu.mit.jwi.data.IDataSource;
+
+/**
+ * Implementation of the {@code IDataProvider} interface that serves the data
+ * sources from a binary snapshot compiled by {@link WordnetSnapshot}. The
+ * snapshot is memory-mapped where possible, and its line tables are used as
+ * they are, so opening it does not scan any file.
+ * <p>
+ * As a {@link JarFileProvider}, it can be reloaded, reports into metrics and
+ * serves the sense frequencies of the {@code cntlist.rev} file stored in the
+ * snapshot. The options which choose how the files are loaded or which data
+ * source implementation serves them do not apply, as the snapshot fixes
+ * both.
+ * 
+ * @author Markus HAENSE
+ */
+public class SnapshotProvider extends JarFileProvider {
+	/**
+	 * The path of the snapshot on the class path that new providers are
+	 * created with, unless {@link #setSnapshotPath(String)} is called.
+	 */
+	public static final String SNAPSHOT_PATH = "WordNet-3.0/dict.snapshot";
+
+	private String _jSnapshotPath = SNAPSHOT_PATH;
+
+	/**
+	 * Constructs the provider for the snapshot at the specified URL. If the
+	 * URL is <code>null</code>, the snapshot is looked up on the class path
+	 * under {@link #getSnapshotPath()}.
+	 */
+	public SnapshotProvider(URL url) {
+		this(url, ContentType.values());
+	}
+
+	/**
+	 * Allows specification of the content types that this provider should
+	 * serve in the form of a an array. Duplicate content types will be
+	 * ignored.
+	 */
+	public SnapshotProvider(URL url, IContentType<?>... types) {
+		this(url, Arrays.asList(types));
+	}
+
+	/**
+	 * Allows specification of the content types that this provider should
+	 * serve in the form of a {@code Collection}. Duplicate content types will
+	 * be ignored.
+	 */
+	public SnapshotProvider(URL url, Collection<? extends IContentType<?>> types) {
+		super(url, types);
+	}
+
+	/**
+	 * Returns the path of the snapshot on the class path, which is used if
+	 * the provider has no URL.
+	 */
+	public String getSnapshotPath() {
+		return _jSnapshotPath;
+	}
+
+	/**
+	 * Sets the path of the snapshot on the class path, which takes effect
+	 * when the provider is next opened. It defaults to {@link #SNAPSHOT_PATH}.
+	 */
+	public void setSnapshotPath(String snapshotPath) {
+		if (snapshotPath == null)
+			throw new NullPointerException();
+		_jSnapshotPath = snapshotPath;
+	}
+
+	/**
+	 * Maps the snapshot and creates the data sources from it.
+	 * 
+	 * @see JarFileProvider#loadGeneration()
+	 * @throws IOException
+	 *             if the snapshot cannot be found, is not a snapshot or has
+	 *             been written in an unsupported format
+	 */
+	@Override
+	protected Generation loadGeneration() throws IOException {
+		String snapshotPath = _jSnapshotPath;
+		URL url = getSource() != null ? getSource() : SnapshotProvider.class
+				.getResource("/" + snapshotPath);
+		if (url == null) {
+			throw new IOException("No snapshot found at " + snapshotPath);
+		}
+
+		ByteBuffer snapshot = loadSnapshot(url);
+		if (snapshot.limit() < 12 || snapshot.getInt(0) != WordnetSnapshot.MAGIC) {
+			throw new IOException(url + " is not a Wordnet snapshot");
+		}
+		if (snapshot.getInt(4) != WordnetSnapshot.FORMAT_VERSION) {
+			throw new IOException("Unsupported snapshot format "
+					+ snapshot.getInt(4) + " in " + url);
+		}
+
+		SnapshotGeneration generation = new SnapshotGeneration();
+		int count = snapshot.getInt(8);
+		int pos = 12;
+		Map<IContentType<?>, IDataSource<?>> fileMap = new HashMap<IContentType<?>, IDataSource<?>>();
+		for (int i = 0; i < count; i++) {
+			byte[] name = new byte[snapshot.getShort(pos)];
+			pos += 2;
+			for (int j = 0; j < name.length; j++)
+				name[j] = snapshot.get(pos++);
+			boolean direct = snapshot.get(pos++) == 1;
+			int linesOffset = snapshot.getInt(pos);
+			int lineCount = snapshot.getInt(pos + 4);
+			int contentOffset = snapshot.getInt(pos + 8);
+			int contentLength = snapshot.getInt(pos + 12);
+			pos += 16;
+
+			String fileName = new String(name, "US-ASCII");
+			ByteBuffer content = WordnetSnapshot.slice(snapshot,
+					contentOffset, contentLength);
+			generation._jFiles.put(fileName, content);
+			for (IContentType<?> type : getSearchTypes()) {
+				if (!fileMap.containsKey(type)
+						&& JarFileProvider.matches(fileName, type)) {
+					int[] lines = linesOffset == -1 ? null : WordnetSnapshot
+							.readLines(snapshot, linesOffset, lineCount);
+					IDataSource<?> src = createDataSource(content, fileName,
+							type, direct, lines);
+					if (src instanceof WordnetJarFile<?>)
+						((WordnetJarFile<?>) src).setMetrics(getMetrics());
+					fileMap.put(type, src);
+				}
+			}
+		}
+
+		generation.setSources(fileMap);
+		return generation;
+	}
+
+	/**
+	 * Opens the specified file stored in the snapshot of the generation, or
+	 * returns <code>null</code> if there is no such file, e.g. in a snapshot
+	 * compiled from a directory without it.
+	 * 
+	 * @see JarFileProvider#openResource(JarFileProvider.Generation,
+	 *      java.lang.String)
+	 */
+	@Override
+	protected InputStream openResource(Generation generation, String name)
+			throws IOException {
+		ByteBuffer content = ((SnapshotGeneration) generation)._jFiles.get(name);
+		if (content == null)
+			return null;
+		byte[] bytes = new byte[content.remaining()];
+		content.duplicate().get(bytes);
+		return new ByteArrayInputStream(bytes);
+	}
+
+	/**
+	 * Returns the content of the snapshot, memory-mapped if it is a file or
+	 * a JAR entry, and read onto the heap otherwise.
+	 * 
+	 * @throws IOException
+	 *             if the snapshot cannot be read, or its URL cannot be
+	 *             converted into a file
+	 */
+	protected ByteBuffer loadSnapshot(URL url) throws IOException {
+		try {
+			if ("file".equals(url.getProtocol())) {
+				RandomAccessFile raf = new RandomAccessFile(
+						new File(url.toURI()), "r");
+				try {
+					FileChannel channel = raf.getChannel();
+					return channel.map(FileChannel.MapMode.READ_ONLY, 0,
+							channel.size());
+				} finally {
+					raf.close();
+				}
+			}
+
+			URLConnection connection = url.openConnection();
+			if (connection instanceof JarURLConnection) {
+				JarURLConnection jarConnection = (JarURLConnection) connection;
+				jarConnection.setUseCaches(false);
+				JarFile jarFile = jarConnection.getJarFile();
+				try {
+					return JarUtil.mapResourceFileInJarFile(new File(
+							jarConnection.getJarFileURL().toURI()), jarFile,
+							jarConnection.getJarEntry());
+				} finally {
+					jarFile.close();
+				}
+			}
+		} catch (URISyntaxException e) {
+			throw new IOException(e);
+		}
+
+		return WordnetJarFile.readBuffer(url.openStream());
+	}
+
+	/**
+	 * Allows subclasses to change the data source implementation.
+	 */
+	protected <T> IDataSource<T> createDataSource(ByteBuffer content,
+			String name, IContentType<T> type, boolean direct, int[] lines) {
+		if (direct) {
+			return new DirectAccessWordnetJarFile<T>(content, name, type);
+		}
+		return new BinarySearchWordnetJarFile<T>(content, name, type, lines);
+	}
+
+	/**
+	 * The data sources of one opening or reloading of the snapshot, together
+	 * with the content of all files stored in it.
+	 */
+	protected static class SnapshotGeneration extends Generation {
+		private final Map<String, ByteBuffer> _jFiles = new HashMap<String, ByteBuffer>();
+
+		protected SnapshotGeneration() {
+			super(null, "", null);
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,472 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.mit.jwi.data.DataType;
+import edu.mit.jwi.data.IContentType;
+import edu.mit.jwi.data.IDataSource;
+import edu.mit.jwi.data.compare.ICommentDetector;
+
+/**
+ * Multi-threaded stress test of the lookups of the data sources, run against
+ * the Wordnet dictionary bundled in the JAR file. For each data source
+ * implementation, the expected results are taken from a plain sequential
+ * scan of the file as stored in the JAR file, independently of the data
+ * sources. Every key of each file, and keys which are not found, such as
+ * absent lemmas, comment lines and negative, out of range or non-numeric
+ * offsets, are then looked up once serially, and by each of the specified
+ * number of threads at the same time, in an order of its own, through
+ * {@code getLine}, {@code getLineView} and the first line of
+ * {@code iterator(key)}. Any result that differs from the expected one is
+ * reported, and the test fails if there is one. <br/>
+ * Usage: java -cp &lt;jar&gt; StressTest [threads] [rounds]
+ * 
+ * @author Markus HAENSE
+ */
+public class StressTest {
+
+	/** Number of mismatches reported in detail per data source */
+	private static final int MAXIMUM_REPORTED = 10;
+
+	/** Every how many lines a key that is not found is derived from one */
+	private static final int MISS_INTERVAL = 50;
+
+	private final int fThreads;
+	private final int fRounds;
+
+	public StressTest(int threads, int rounds) {
+		fThreads = threads;
+		fRounds = rounds;
+	}
+
+	public static void main(String[] args) throws Exception {
+		int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime
+				.getRuntime().availableProcessors();
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+
+		long mismatches = new StressTest(threads, rounds).run();
+		if (mismatches > 0) {
+			System.err.println(mismatches + " mismatches");
+			System.exit(1);
+		}
+		System.out.println("No mismatches");
+	}
+
+	/**
+	 * Checks the data sources of a provider in each mode that changes the
+	 * data source implementation, and returns the number of mismatches.
+	 */
+	public long run() throws IOException {
+		String[] modes = { "default", "memory-mapped", "line-indexed",
+				"hashed-index", "hashed-exceptions", "compressed" };
+		long mismatches = 0;
+		for (String mode : modes) {
+			JarFileProvider provider = createProvider(mode);
+			provider.open();
+			try {
+				List<IDataSource<?>> sources = new ArrayList<IDataSource<?>>(
+						provider.getSources());
+				for (IDataSource<?> src : sources) {
+					Reference reference = new Reference(readFile(provider
+							.getWordnetPath()
+							+ src.getName()), src.getContentType());
+					mismatches += check(src, reference, mode);
+				}
+			} finally {
+				provider.close();
+			}
+		}
+		return mismatches;
+	}
+
+	/**
+	 * Returns a provider of the dictionary in the JAR file of this class,
+	 * configured for the specified mode.
+	 */
+	protected JarFileProvider createProvider(String mode) {
+		JarFileProvider provider = new JarFileProvider(StressTest.class
+				.getResource(""));
+		provider.setMemoryMapped("memory-mapped".equals(mode));
+		provider.setLineIndexed("line-indexed".equals(mode));
+		provider.setHashedIndex("hashed-index".equals(mode));
+		provider.setHashedExceptions("hashed-exceptions".equals(mode));
+		provider.setCompressed("compressed".equals(mode));
+		return provider;
+	}
+
+	/**
+	 * Looks up the keys of the reference serially and then concurrently, and
+	 * returns the number of results that differ from the expected ones.
+	 */
+	public long check(final IDataSource<?> src, final Reference reference,
+			String mode) {
+		final List<String> keys = reference.getKeys();
+		final AtomicLong mismatches = new AtomicLong();
+		final String name = src.getClass().getSimpleName() + " "
+				+ src.getName() + " " + mode;
+
+		LineView serialView = new LineView();
+		for (String key : keys)
+			compare(src, reference, key, serialView, name, mismatches);
+
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(fThreads);
+		for (int t = 0; t < fThreads; t++) {
+			final Random random = new Random(t);
+			new Thread("stress-" + t) {
+				public void run() {
+					List<String> order = new ArrayList<String>(keys);
+					LineView view = new LineView();
+					try {
+						start.await();
+						for (int round = 0; round < fRounds; round++) {
+							Collections.shuffle(order, random);
+							for (String key : order)
+								compare(src, reference, key, view, name,
+										mismatches);
+						}
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					} catch (RuntimeException e) {
+						mismatches.incrementAndGet();
+						System.err.println(name + ": " + e);
+						e.printStackTrace();
+					} finally {
+						done.countDown();
+					}
+				}
+			}.start();
+		}
+
+		long begin = System.nanoTime();
+		start.countDown();
+		try {
+			done.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		long elapsed = System.nanoTime() - begin;
+
+		System.out.println(String.format(
+				"%-70s %3d thr %8d keys %8d ms %6d mismatches", name, fThreads,
+				keys.size(), elapsed / 1000000, mismatches.get()));
+		return mismatches.get();
+	}
+
+	/**
+	 * Looks up the key in the data source in every way, and reports each
+	 * result that the reference does not expect.
+	 */
+	private static void compare(IDataSource<?> src, Reference reference,
+			String key, LineView view, String name, AtomicLong mismatches) {
+		String line;
+		try {
+			line = src.getLine(key);
+		} catch (RuntimeException e) {
+			line = e.toString();
+		}
+		if (!reference.matches(key, reference.getLine(key), line))
+			report(name, "getLine", key, reference.getLine(key), line,
+					mismatches);
+
+		if (src instanceof WordnetJarFile<?>) {
+			String viewed;
+			try {
+				viewed = ((WordnetJarFile<?>) src).getLineView(key, view) ? view
+						.toString()
+						: null;
+			} catch (RuntimeException e) {
+				viewed = e.toString();
+			}
+			if (!reference.matches(key, reference.getLine(key), viewed))
+				report(name, "getLineView", key, reference.getLine(key),
+						viewed, mismatches);
+		}
+
+		String first;
+		try {
+			Iterator<String> iterator = src.iterator(key);
+			first = iterator.hasNext() ? iterator.next() : null;
+		} catch (RuntimeException e) {
+			first = e.toString();
+		}
+		if (!reference.matches(key, reference.getFirstLine(key), first))
+			report(name, "iterator", key, reference.getFirstLine(key), first,
+					mismatches);
+	}
+
+	private static void report(String name, String method, String key,
+			String expected, String actual, AtomicLong mismatches) {
+		if (mismatches.incrementAndGet() > MAXIMUM_REPORTED)
+			return;
+		System.err.println(name + ": " + method + " of key '" + key
+				+ "' expected <" + expected + "> but returned <" + actual
+				+ ">");
+	}
+
+	/**
+	 * Reads a file from the JAR file of this class.
+	 */
+	private static byte[] readFile(String path) throws IOException {
+		InputStream is = StressTest.class.getResourceAsStream("/" + path);
+		if (is == null)
+			throw new IOException("Not found: " + path);
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] chunk = new byte[8192];
+			int read;
+			while ((read = is.read(chunk)) != -1)
+				out.write(chunk, 0, read);
+			return out.toByteArray();
+		} finally {
+			is.close();
+		}
+	}
+
+	/**
+	 * The expected results of the lookups in a file, computed once with the
+	 * algorithms of the data sources as they were before they became
+	 * lock-free: a binary search over the lines read one by one for sorted
+	 * files, and a read of the line at the offset for data files. They run on
+	 * a buffer of their own, so they share no code with the data sources
+	 * under test. They only differ from the old ones where those were wrong:
+	 * a negative offset finds no line instead of throwing an exception, a
+	 * comment line is no result of a lookup, and the iterator of the first
+	 * key of a file without comments starts with its line. A key of several
+	 * lines may find any of them.
+	 */
+	public static final class Reference {
+		private final ByteBuffer fBuffer;
+		private final boolean fData;
+		private final Comparator<String> fComparator;
+		private final ICommentDetector fDetector;
+		private final List<String> fKeys = new ArrayList<String>();
+		private final Map<String, String> fLines = new HashMap<String, String>();
+		private final Map<String, String> fFirstLines = new HashMap<String, String>();
+		private final Map<String, List<String>> fEntries = new HashMap<String, List<String>>();
+
+		public Reference(byte[] content, IContentType<?> type) {
+			fBuffer = ByteBuffer.wrap(content);
+			fData = type.getDataType() == DataType.DATA;
+			fComparator = type.getLineComparator();
+			fDetector = fComparator == null ? null : type.getLineComparator()
+					.getCommentDetector();
+
+			int lines = 0;
+			int start = 0;
+			String line;
+			for (; (line = readLine(fBuffer)) != null; start = fBuffer
+					.position()) {
+				lines++;
+				if (line.startsWith("  ")) {
+					// comment lines are no entries
+					fKeys.add(fData ? Integer.toString(start) : line);
+					fKeys.add(line.substring(0, Math.min(3, line.length())));
+					continue;
+				}
+				int end = line.indexOf(' ');
+				String key = end == -1 ? line : line.substring(0, end);
+				List<String> entries = fEntries.get(key);
+				if (entries == null) {
+					entries = new ArrayList<String>(1);
+					fEntries.put(key, entries);
+					fKeys.add(key);
+				}
+				entries.add(line);
+				if (lines % MISS_INTERVAL == 0)
+					fKeys.add(fData ? Integer.toString(start + 1) : key + "~");
+			}
+			String[] misses = { "", "-5", "-1", "abc", "zzzzzzzz~",
+					Integer.toString(content.length),
+					Integer.toString(Integer.MAX_VALUE), "2147483648" };
+			for (String miss : misses)
+				fKeys.add(miss);
+
+			for (String key : fKeys) {
+				fLines.put(key, fData ? findDirectLine(key)
+						: findSortedLine(key));
+				fFirstLines.put(key, findFirstLine(key));
+			}
+		}
+
+		public List<String> getKeys() {
+			return fKeys;
+		}
+
+		public String getLine(String key) {
+			return fLines.get(key);
+		}
+
+		public String getFirstLine(String key) {
+			return fFirstLines.get(key);
+		}
+
+		/**
+		 * Returns <code>true</code> if the line is the expected one for the
+		 * key, or another line of the same key.
+		 */
+		public boolean matches(String key, String expected, String line) {
+			if (expected == null || line == null)
+				return expected == line;
+			if (expected.equals(line))
+				return true;
+			List<String> entries = fData ? null : fEntries.get(key);
+			return entries != null && entries.contains(expected)
+					&& entries.contains(line);
+		}
+
+		private String findDirectLine(String key) {
+			try {
+				int byteOffset = Integer.parseInt(key);
+				if (byteOffset < 0 || fBuffer.limit() <= byteOffset)
+					return null;
+				fBuffer.position(byteOffset);
+				String line = readLine(fBuffer);
+				return line.startsWith(key) ? line : null;
+			} catch (NumberFormatException e) {
+				return null;
+			}
+		}
+
+		private String findSortedLine(String key) {
+			int start = 0;
+			int stop = fBuffer.limit();
+			int midpoint = (stop + start) / 2;
+			int compare;
+			String line;
+			while (start < midpoint | stop - start > 1) {
+				midpoint = (start + stop) / 2;
+				fBuffer.position(midpoint);
+				line = readLine(fBuffer);
+				if (midpoint > 0)
+					line = readLine(fBuffer);
+
+				if (line == null || line.length() == 0) {
+					// the last line of the file, if it matches
+					fBuffer.position(start);
+					line = readLine(fBuffer);
+					String newline = readLine(fBuffer);
+					while (newline != null) {
+						line = newline;
+						newline = readLine(fBuffer);
+					}
+					return fComparator.compare(line, key) == 0 ? entry(line)
+							: null;
+				}
+				compare = fComparator.compare(line, key);
+				if (compare == 0) {
+					return entry(line);
+				} else if (compare > 0) {
+					stop = midpoint;
+				} else {
+					start = midpoint;
+				}
+			}
+			return null;
+		}
+
+		/**
+		 * Returns the first line of the iterator of the key.
+		 */
+		private String findFirstLine(String key) {
+			key = key.trim();
+			if (key.length() == 0) {
+				fBuffer.position(0);
+				String line;
+				do {
+					line = readLine(fBuffer);
+				} while (fDetector != null && fDetector.isCommentLine(line));
+				return line;
+			}
+			if (fData) {
+				try {
+					int byteOffset = Integer.parseInt(key);
+					if (byteOffset < 0 || fBuffer.limit() <= byteOffset)
+						return null;
+					fBuffer.position(byteOffset);
+					return readLine(fBuffer);
+				} catch (NumberFormatException e) {
+					return null;
+				}
+			}
+
+			int lastOffset = -1;
+			int start = 0;
+			int stop = fBuffer.limit();
+			int offset, midpoint = -1;
+			int compare;
+			String line;
+			while (start + 1 < stop) {
+				midpoint = (start + stop) / 2;
+				fBuffer.position(midpoint);
+				line = readLine(fBuffer);
+				offset = fBuffer.position();
+				line = readLine(fBuffer);
+				if (line == null)
+					return null;
+
+				compare = fComparator.compare(line, key);
+				if (compare == 0) {
+					return line;
+				} else if (compare > 0) {
+					stop = midpoint;
+				} else {
+					start = midpoint;
+				}
+				if (line.startsWith(key)) {
+					lastOffset = offset;
+				}
+			}
+			fBuffer.position(0);
+			line = readLine(fBuffer);
+			if (line != null && fComparator.compare(line, key) == 0
+					&& entry(line) != null)
+				return line;
+			if (lastOffset > -1) {
+				fBuffer.position(lastOffset);
+				return readLine(fBuffer);
+			}
+			return null;
+		}
+
+		private String entry(String line) {
+			return fDetector != null && fDetector.isCommentLine(line) ? null
+					: line;
+		}
+
+		/**
+		 * Reads the line at the position of the buffer character by
+		 * character, and moves the position past its terminator.
+		 */
+		private static String readLine(ByteBuffer buf) {
+			StringBuilder input = new StringBuilder();
+			boolean eol = false;
+			int limit = buf.limit();
+			while (!eol && buf.position() < limit) {
+				char c = (char) buf.get();
+				if (c == '\n') {
+					eol = true;
+				} else if (c == '\r') {
+					eol = true;
+					if (buf.position() < limit && buf.get(buf.position()) == '\n')
+						buf.get();
+				} else {
+					input.append(c);
+				}
+			}
+			return (buf.position() == limit && input.length() == 0) ? null
+					: input.toString();
+		}
+	}
+}
\ No newline at end of file
@@ -17,11 +17,12 @@ public class Tester {
 	public static void main(String[] args) {
 		// TODO: can be improved ;)
 		// Path to the WordNet directory inside the JAR file
-		JarFileProvider.WORDNET_PATH = "WordNet-3.0/dict/";
+		JarFileProvider provider = new JarFileProvider(
+				Tester.class.getResource(""));
+		provider.setWordnetPath("WordNet-3.0/dict/");
 
 		// Construct the dictionary object and open it
-		IDictionary wordnetDictionary = new JarDictionary(
-				Tester.class.getResource(""));
+		IDictionary wordnetDictionary = new JarDictionary(provider);
 		wordnetDictionary.open();
 
 		// Look up first sense of the word "dog"
@@ -15,11 +15,21 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import edu.mit.jwi.data.IContentType;
 import edu.mit.jwi.data.IDataSource;
+import edu.mit.jwi.data.compare.CommentComparator;
 import edu.mit.jwi.data.compare.ICommentDetector;
 import edu.mit.jwi.item.IVersion;
 import edu.mit.jwi.item.Version;
@@ -34,12 +44,26 @@ public abstract class WordnetJarFile<T> implements IDataSource<T> {
 	private final String fName;
 	private final IVersion fVersion;
 	private final IContentType<T> fContentType;
-	private final ICommentDetector fDetector;
+	protected final ICommentDetector fDetector;
 
 	private final static int BUFSIZE = 8096;
 
+	/** Distance between the bytes read by {@link #touchPages()} */
+	public final static int PAGE_SIZE = 4096;
+
+	/**
+	 * The content of the file. Its position is never moved, so that it can be
+	 * read concurrently without locking: readers work on a
+	 * {@link ByteBuffer#duplicate()} or use absolute reads.
+	 */
 	protected final ByteBuffer fBuffer;
 
+	/**
+	 * Receives the measurements of this data source, or <code>null</code> if
+	 * nothing is measured.
+	 */
+	protected IDataSourceMetrics fMetrics;
+
 	/**
 	 * Constructs an instance of this class backed by the specified java
 	 * {@code File} object, with the particular content type. No effort is made
@@ -50,10 +74,44 @@ public abstract class WordnetJarFile<T> implements IDataSource<T> {
 	 */
 	public WordnetJarFile(InputStream is, String name,
 			IContentType<T> contentType) throws IOException {
+		this(readBuffer(is), name, contentType);
+	}
+
+	/**
+	 * Constructs an instance of this class backed by the specified buffer,
+	 * which may be a heap buffer, a direct buffer or a buffer memory-mapped
+	 * from the JAR file. The buffer is used as is and must not be modified
+	 * afterwards.
+	 */
+	public WordnetJarFile(ByteBuffer buffer, String name,
+			IContentType<T> contentType) {
 		fName = name;
 		fContentType = contentType;
 		fDetector = fContentType.getLineComparator().getCommentDetector();
 
+		fBuffer = buffer;
+		fVersion = Version.extractVersion(fContentType, fBuffer);
+	}
+
+	/**
+	 * Constructs an instance of this class that does not keep the content of
+	 * the file in {@link #fBuffer}, which is left empty. Subclasses using this
+	 * constructor must override all methods that read the buffer.
+	 */
+	protected WordnetJarFile(String name, IContentType<T> contentType,
+			IVersion version) {
+		fName = name;
+		fContentType = contentType;
+		fDetector = fContentType.getLineComparator().getCommentDetector();
+
+		fBuffer = ByteBuffer.allocate(0);
+		fVersion = version;
+	}
+
+	/**
+	 * Reads the stream fully into a heap buffer and closes it.
+	 */
+	protected static ByteBuffer readBuffer(InputStream is) throws IOException {
 		ByteArrayOutputStream out = new ByteArrayOutputStream(BUFSIZE);
 
 		byte[] tmp = new byte[BUFSIZE];
@@ -68,8 +126,7 @@ public abstract class WordnetJarFile<T> implements IDataSource<T> {
 		out.close();
 		is.close();
 
-		fBuffer = ByteBuffer.wrap(out.toByteArray());
-		fVersion = Version.extractVersion(fContentType, fBuffer);
+		return ByteBuffer.wrap(out.toByteArray());
 	}
 
 	/*
@@ -81,38 +138,202 @@ public abstract class WordnetJarFile<T> implements IDataSource<T> {
 		return fVersion;
 	}
 
+	/**
+	 * Returns the metrics this data source reports into, or <code>null</code>
+	 * if there are none.
+	 */
+	public IDataSourceMetrics getMetrics() {
+		return fMetrics;
+	}
+
+	/**
+	 * Sets the metrics this data source reports into. If <code>null</code>,
+	 * nothing is measured.
+	 */
+	public void setMetrics(IDataSourceMetrics metrics) {
+		fMetrics = metrics;
+	}
+
+	/**
+	 * Returns the start time of a lookup if it has to be measured, 0
+	 * otherwise.
+	 */
+	protected long startLookup() {
+		return fMetrics == null ? 0L : System.nanoTime();
+	}
+
+	/**
+	 * Reports a lookup started with {@link #startLookup()} to the metrics, if
+	 * any. The line is <code>null</code> if none was found. Returns whether
+	 * one was found.
+	 */
+	protected boolean endLookup(long start, LineView line, int probes,
+			int bytesScanned) {
+		IDataSourceMetrics metrics = fMetrics;
+		if (metrics != null) {
+			if (line != null)
+				bytesScanned += line.length();
+			metrics.recordLookup(fContentType, line != null, probes,
+					bytesScanned, start == 0L ? 0L : System.nanoTime() - start);
+		}
+		return line != null;
+	}
+
+	/**
+	 * Copies the line found by {@link #getLineView(String, LineView)} into a
+	 * {@code String}.
+	 * 
+	 * @see edu.mit.jwi.data.IDataSource#getLine(java.lang.String)
+	 */
+	public String getLine(String key) {
+		LineView line = new LineView();
+		return getLineView(key, line) ? line.toString() : null;
+	}
+
+	/**
+	 * Returns a view of the line for the specified key, or <code>null</code>
+	 * if there is none. The characters of the line are not copied.
+	 */
+	public LineView getLineView(String key) {
+		LineView line = new LineView();
+		return getLineView(key, line) ? line : null;
+	}
+
+	/**
+	 * Points the specified view at the line for the key, and returns
+	 * <code>true</code>; or returns <code>false</code>, leaving the view
+	 * unchanged, if there is no such line. Reusing one view for many lookups
+	 * allocates nothing.
+	 */
+	public abstract boolean getLineView(String key, LineView line);
+
+	/**
+	 * Returns the lines for the specified keys, in the iteration order of the
+	 * keys. The line of a key that is not found is <code>null</code>. Keys
+	 * that occur more than once are only looked up once.
+	 */
+	public List<String> getLines(Collection<String> keys) {
+		return getLinesByKey(keys);
+	}
+
+	/**
+	 * Implements {@link #getLines(Collection)} by looking up each distinct
+	 * key on its own.
+	 */
+	protected List<String> getLinesByKey(Collection<String> keys) {
+		Map<String, String> found = new HashMap<String, String>();
+		List<String> lines = new ArrayList<String>(keys.size());
+		for (String key : keys) {
+			String line = found.get(key);
+			if (line == null && !found.containsKey(key)) {
+				line = getLine(key);
+				found.put(key, line);
+			}
+			lines.add(line);
+		}
+		return lines;
+	}
+
 	/**
 	 * Returns the String from the current position up to, and including, the
 	 * next newline
 	 */
 	public static String getLine(ByteBuffer buf) {
-		StringBuilder input = new StringBuilder();
-		char c;
-		boolean eol = false;
-		int limit = buf.limit();
+		int start = buf.position();
+		int end = getLineEnd(buf, start);
+		int next = skipLineEnd(buf, end);
+		buf.position(next);
+		return (next == buf.limit() && end == start) ? null : decode(buf,
+				start, end);
+	}
 
-		while (!eol && buf.position() < limit) {
-			c = (char) buf.get();
-			switch (c) {
-			case '\n':
-				eol = true;
-				break;
-			case '\r':
-				eol = true;
-				int cur = buf.position();
-				c = (char) buf.get();
-				if (c != '\n') {
-					buf.position(cur);
-				}
-				break;
-			default:
-				input.append(c);
-				break;
-			}
+	/**
+	 * Returns the line starting at the specified absolute position, without
+	 * the line terminator, or <code>null</code> if the position is at the end
+	 * of the buffer. The buffer's position is not changed.
+	 */
+	public static String getLine(ByteBuffer buf, int start) {
+		if (start >= buf.limit())
+			return null;
+		return decode(buf, start, getLineEnd(buf, start));
+	}
+
+	/**
+	 * Returns the absolute position of the start of the line that follows the
+	 * one containing the specified position, or the buffer's limit if there
+	 * is none. The buffer's position is not changed.
+	 */
+	public static int skipLine(ByteBuffer buf, int pos) {
+		return skipLineEnd(buf, getLineEnd(buf, pos));
+	}
+
+	/**
+	 * Returns the absolute position of the line terminator of the line
+	 * containing the specified position, or the buffer's limit if the line is
+	 * not terminated. Heap buffers are scanned in their backing array. The
+	 * buffer's position is not changed.
+	 */
+	public static int getLineEnd(ByteBuffer buf, int pos) {
+		int limit = buf.limit();
+		if (buf.hasArray()) {
+			byte[] array = buf.array();
+			int offset = buf.arrayOffset();
+			int i = pos + offset;
+			int end = limit + offset;
+			while (i < end && array[i] != '\n' && array[i] != '\r')
+				i++;
+			return i - offset;
 		}
+		byte b;
+		while (pos < limit && (b = buf.get(pos)) != '\n' && b != '\r')
+			pos++;
+		return pos;
+	}
+
+	/**
+	 * Returns the position after the line terminator at the specified
+	 * position.
+	 */
+	private static int skipLineEnd(ByteBuffer buf, int end) {
+		int limit = buf.limit();
+		if (end >= limit)
+			return limit;
+		if (buf.get(end) == '\r' && end + 1 < limit && buf.get(end + 1) == '\n')
+			return end + 2;
+		return end + 1;
+	}
+
+	private static String decode(ByteBuffer buf, int start, int end) {
+		char[] chars = new char[end - start];
+		for (int i = 0; i < chars.length; i++)
+			chars[i] = (char) buf.get(start + i);
+		return new String(chars);
+	}
+
+	/**
+	 * Reads one byte of every page of the content, so that all of it is in
+	 * memory afterwards, e.g. if it is memory-mapped. Returns the sum of the
+	 * bytes read.
+	 */
+	public int touchPages() {
+		int sum = 0;
+		int limit = fBuffer.limit();
+		for (int pos = 0; pos < limit; pos += PAGE_SIZE)
+			sum += fBuffer.get(pos);
+		return sum;
+	}
 
-		return (buf.position() == limit && input.length() == 0) ? null : input
-				.toString();
+	/**
+	 * Returns whether the line is a comment, without copying it if the
+	 * comment detector is the usual {@code CommentComparator}.
+	 */
+	protected boolean isCommentLine(LineView line) {
+		if (fDetector == null)
+			return false;
+		if (fDetector instanceof CommentComparator)
+			return line.length() >= 2 && line.charAt(0) == ' '
+					&& line.charAt(1) == ' ';
+		return fDetector.isCommentLine(line.toString());
 	}
 
 	/**
@@ -147,6 +368,27 @@ public abstract class WordnetJarFile<T> implements IDataSource<T> {
 	 */
 	public abstract Iterator<String> iterator(String key);
 
+	/**
+	 * Returns an iterator over all lines of the file that are not comments,
+	 * which returns one and the same view for every line. A view returned by
+	 * {@link Iterator#next()} is only valid until the next call, so scans that
+	 * only inspect the lines allocate nothing per line.
+	 */
+	public Iterator<LineView> viewIterator() {
+		return new ViewIterator(fBuffer);
+	}
+
+	/**
+	 * Returns a stream over all lines of the file that are not comments. The
+	 * stream is sequential; call {@link Stream#parallel()} on it to scan the
+	 * file on the fork-join pool. Parallel streams split the buffer at line
+	 * boundaries, and their parts share nothing but the read-only content.
+	 */
+	public Stream<String> lines() {
+		return StreamSupport.stream(new LineSpliterator(fBuffer, 0, fBuffer
+				.limit()), false);
+	}
+
 	/**
 	 * (non-Javadoc)
 	 * 
@@ -177,6 +419,178 @@ public abstract class WordnetJarFile<T> implements IDataSource<T> {
 		return true;
 	}
 
+	/**
+	 * Iterates over the lines of a buffer, pointing one view at each line in
+	 * turn.
+	 */
+	protected class ViewIterator implements Iterator<LineView> {
+
+		private final ByteBuffer fMyBuffer;
+		private final LineView fLine = new LineView();
+		private int fPosition;
+		private int fNextStart = -1;
+		private int fNextEnd;
+
+		public ViewIterator(ByteBuffer buffer) {
+			fMyBuffer = buffer;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.util.Iterator#hasNext()
+		 */
+		public boolean hasNext() {
+			int limit = fMyBuffer.limit();
+			while (fNextStart < 0 && fPosition < limit) {
+				int start = fPosition;
+				int end = getLineEnd(fMyBuffer, start);
+				fPosition = skipLineEnd(fMyBuffer, end);
+				// like getLine(ByteBuffer), there is no empty last line
+				if (fPosition == limit && end == start)
+					break;
+				if (!isCommentLine(fLine.set(fMyBuffer, start, end))) {
+					fNextStart = start;
+					fNextEnd = end;
+				}
+			}
+			return fNextStart >= 0;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.util.Iterator#next()
+		 */
+		public LineView next() {
+			if (!hasNext())
+				throw new NoSuchElementException();
+			fLine.set(fMyBuffer, fNextStart, fNextEnd);
+			fNextStart = -1;
+			if (fMetrics != null)
+				fMetrics.recordIteration(fContentType, 1);
+			return fLine;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.util.Iterator#remove()
+		 */
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	/**
+	 * Traverses the lines between two absolute positions of a buffer, using
+	 * absolute reads only. It splits its range in half at a line boundary.
+	 */
+	protected class LineSpliterator implements Spliterator<String> {
+
+		/**
+		 * Ranges below this number of bytes are not split further.
+		 */
+		protected static final int MINIMUM_SPLIT = 16 * 1024;
+
+		private final ByteBuffer fMyBuffer;
+		private int fPosition;
+		private final int fEnd;
+
+		/**
+		 * Constructs the spliterator. The start must be the beginning of a
+		 * line.
+		 */
+		public LineSpliterator(ByteBuffer buffer, int start, int end) {
+			fMyBuffer = buffer;
+			fPosition = start;
+			fEnd = end;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.util.Spliterator#tryAdvance(java.util.function.Consumer)
+		 */
+		public boolean tryAdvance(Consumer<? super String> action) {
+			String line = nextLine();
+			if (line == null)
+				return false;
+			action.accept(line);
+			if (fMetrics != null)
+				fMetrics.recordIteration(fContentType, 1);
+			return true;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.util.Spliterator#forEachRemaining(java.util.function.Consumer)
+		 */
+		public void forEachRemaining(Consumer<? super String> action) {
+			int lines = 0;
+			String line;
+			while ((line = nextLine()) != null) {
+				action.accept(line);
+				lines++;
+			}
+			// report once, so parallel scans do not contend on the counters
+			if (fMetrics != null && lines > 0)
+				fMetrics.recordIteration(fContentType, lines);
+		}
+
+		/**
+		 * Returns the next line that is not a comment, or <code>null</code>
+		 * at the end of the range.
+		 */
+		private String nextLine() {
+			while (fPosition < fEnd) {
+				String line = getLine(fMyBuffer, fPosition);
+				fPosition = skipLine(fMyBuffer, fPosition);
+				if (fDetector == null || !fDetector.isCommentLine(line))
+					return line;
+			}
+			return null;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.util.Spliterator#trySplit()
+		 */
+		public Spliterator<String> trySplit() {
+			if (fEnd - fPosition < MINIMUM_SPLIT)
+				return null;
+			int mid = (fPosition + fEnd) >>> 1;
+			// the first line starting at or after the middle
+			int split = skipLine(fMyBuffer, mid - 1);
+			if (split >= fEnd)
+				return null;
+			Spliterator<String> prefix = new LineSpliterator(fMyBuffer,
+					fPosition, split);
+			fPosition = split;
+			return prefix;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.util.Spliterator#estimateSize()
+		 */
+		public long estimateSize() {
+			return fEnd - fPosition;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.util.Spliterator#characteristics()
+		 */
+		public int characteristics() {
+			return ORDERED | NONNULL | IMMUTABLE;
+		}
+	}
+
 	/**
 	 * Used to iterate over lines in a file. It is a look-ahead iterator.
 	 */
@@ -239,6 +653,8 @@ public abstract class WordnetJarFile<T> implements IDataSource<T> {
 				throw new NoSuchElementException();
 			previous = next;
 			advance();
+			if (fMetrics != null)
+				fMetrics.recordIteration(fContentType, 1);
 			return previous;
 		}
 
@@ -0,0 +1,194 @@
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import edu.mit.jwi.data.ContentType;
+import edu.mit.jwi.data.IContentType;
+import edu.mit.jwi.data.IDataSource;
+
+/**
+ * Compiles the files of a Wordnet dictionary directory into a single binary
+ * snapshot, which can be opened by the {@link SnapshotProvider} without
+ * scanning or validating the files again. The snapshot keeps the raw content
+ * of each file, together with its line start offsets if it is searched by
+ * binary search, and the outcome of the direct access check for data files.
+ * The {@code cntlist.rev} file of the sense frequencies is stored as well,
+ * without a line table, if the directory has one.
+ * <p>
+ * The layout is as follows, all numbers being big-endian:
+ * 
+ * <pre>
+ * int      magic number, &quot;WNSS&quot;
+ * int      format version
+ * int      number of files
+ * per file:
+ *   short  length of the file name, followed by the name in ASCII
+ *   byte   1 if the file is read by direct access, 0 otherwise
+ *   int    offset of the line table, or -1 if there is none
+ *   int    number of entries in the line table
+ *   int    offset of the file content
+ *   int    length of the file content
+ * line tables, each aligned on four bytes
+ * file contents
+ * </pre>
+ * 
+ * All offsets are relative to the start of the snapshot.
+ * 
+ * @author Markus HAENSE
+ */
+public class WordnetSnapshot {
+	public static final int MAGIC = 0x574E5353;
+	public static final int FORMAT_VERSION = 1;
+
+	/**
+	 * Compiles the Wordnet files found in the specified directory into a
+	 * snapshot written to the specified file.
+	 */
+	public static void write(File directory, File snapshot) throws IOException {
+		File[] files = directory.listFiles();
+		if (files == null || files.length == 0) {
+			throw new IOException("No files found in " + directory);
+		}
+		Arrays.sort(files);
+
+		// the provider is only used to create and validate the sources
+		JarFileProvider provider = new JarFileProvider(null);
+		provider.setLineIndexed(true);
+
+		// like the providers, take the first file matching each content type
+		Map<File, IContentType<?>> matches = new LinkedHashMap<File, IContentType<?>>();
+		for (IContentType<?> type : ContentType.values()) {
+			for (File file : files) {
+				if (file.isFile() && JarFileProvider.matches(file.getName(), type)) {
+					if (!matches.containsKey(file))
+						matches.put(file, type);
+					break;
+				}
+			}
+		}
+
+		File frequencies = new File(directory, SenseFrequencyIndex.FILE_NAME);
+		int total = matches.size() + (frequencies.isFile() ? 1 : 0);
+
+		int count = 0;
+		String[] names = new String[total];
+		ByteBuffer[] contents = new ByteBuffer[total];
+		int[][] lines = new int[total][];
+		boolean[] direct = new boolean[total];
+		for (Map.Entry<File, IContentType<?>> e : matches.entrySet()) {
+			File file = e.getKey();
+			IContentType<?> type = e.getValue();
+			ByteBuffer content = WordnetJarFile.readBuffer(new FileInputStream(
+					file));
+			IDataSource<?> src = provider.createDataSource(content, file
+					.getName(), type);
+			names[count] = file.getName();
+			contents[count] = content;
+			if (src instanceof BinarySearchWordnetJarFile<?>) {
+				lines[count] = ((BinarySearchWordnetJarFile<?>) src).fLines;
+			} else {
+				direct[count] = true;
+			}
+			count++;
+		}
+		if (frequencies.isFile()) {
+			names[count] = frequencies.getName();
+			contents[count] = WordnetJarFile.readBuffer(new FileInputStream(
+					frequencies));
+			count++;
+		}
+
+		// compute the layout
+		int headerSize = 12;
+		for (int i = 0; i < count; i++)
+			headerSize += 2 + names[i].length() + 1 + 16;
+		int offset = align(headerSize);
+		int[] linesOffsets = new int[count];
+		for (int i = 0; i < count; i++) {
+			if (lines[i] == null) {
+				linesOffsets[i] = -1;
+				continue;
+			}
+			linesOffsets[i] = offset;
+			offset += 4 * lines[i].length;
+		}
+		int[] contentOffsets = new int[count];
+		for (int i = 0; i < count; i++) {
+			contentOffsets[i] = offset;
+			offset += contents[i].limit();
+		}
+
+		DataOutputStream out = new DataOutputStream(new FileOutputStream(
+				snapshot));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT_VERSION);
+			out.writeInt(count);
+			for (int i = 0; i < count; i++) {
+				out.writeShort(names[i].length());
+				out.writeBytes(names[i]);
+				out.writeByte(direct[i] ? 1 : 0);
+				out.writeInt(linesOffsets[i]);
+				out.writeInt(lines[i] == null ? 0 : lines[i].length);
+				out.writeInt(contentOffsets[i]);
+				out.writeInt(contents[i].limit());
+			}
+			for (int i = headerSize; i < align(headerSize); i++)
+				out.writeByte(0);
+			for (int i = 0; i < count; i++) {
+				if (lines[i] == null)
+					continue;
+				for (int line : lines[i])
+					out.writeInt(line);
+			}
+			for (int i = 0; i < count; i++)
+				out.write(contents[i].array(), 0, contents[i].limit());
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Reads the line table stored at the specified offset of the snapshot.
+	 */
+	public static int[] readLines(ByteBuffer snapshot, int offset, int count) {
+		int[] lines = new int[count];
+		IntBuffer table = slice(snapshot, offset, 4 * count).asIntBuffer();
+		table.get(lines);
+		return lines;
+	}
+
+	/**
+	 * Returns a view of the specified region of the snapshot.
+	 */
+	public static ByteBuffer slice(ByteBuffer snapshot, int offset, int length) {
+		ByteBuffer buf = snapshot.duplicate();
+		buf.position(offset);
+		buf.limit(offset + length);
+		return buf.slice();
+	}
+
+	private static int align(int offset) {
+		return (offset + 3) & ~3;
+	}
+
+	public static void main(String[] args) {
+		if (args.length != 2) {
+			System.err.println("Usage: WordnetSnapshot <dict directory> <snapshot file>");
+			System.exit(1);
+		}
+		try {
+			write(new File(args[0]), new File(args[1]));
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+}
\ No newline at end of file